@@ -0,0 +1,72 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tariff table against the original per-kilometer loop, for short and long deliveries.
+ * Run with {@code mvn -Pbenchmarks compile exec:exec -Djmh.args=ShippingTariffBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShippingTariffBenchmark {
+
+    @Param({"10000", "500000"})
+    int maxDistance;
+
+    private final TariffTable tariff = TariffTable.of(
+            new BigDecimal("30.00"), 2000, 1000, new BigDecimal("5.00"),
+            List.of(new TariffTable.Tier(10000, new BigDecimal("8.00")))
+    );
+
+    private int[] distances;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+
+        SplittableRandom random = new SplittableRandom(42L);
+
+        distances = new int[1024];
+
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = random.nextInt(maxDistance);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal table() {
+        return tariff.fee(next());
+    }
+
+    @Benchmark
+    public double legacyLoop() {
+
+        int distance = next();
+        double minimumShippingCost = 30.0;
+
+        if (distance > 2000) {
+
+            long km = 2000;
+
+            while (km < distance) {
+                minimumShippingCost += 5d;
+                km += 1000;
+            }
+        }
+
+        return minimumShippingCost;
+    }
+
+    private int next() {
+        return distances[cursor++ & (distances.length - 1)];
+    }
+}
@@ -0,0 +1,106 @@
+package org.delicias.shoppingcart.service;
+
+import org.delicias.common.adjusment.AdjustmentKeys;
+import org.delicias.common.adjusment.AdjustmentType;
+import org.delicias.common.adjusment.OrderAdjustment;
+import org.delicias.common.dto.product.ProductPriceDTO;
+import org.delicias.shoppingcart.domain.model.ShoppingCartView;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Synthetic carts for the benchmarks: every line points to its own product, and
+ * every product has a few attributes with many values, some of them selected.
+ */
+final class CartFixtures {
+
+    static final int ATTRIBUTES_PER_PRODUCT = 4;
+
+    private CartFixtures() {}
+
+    static Map<Integer, ProductPriceDTO> products(int count, int valuesPerAttribute, long seed) {
+
+        Random random = new Random(seed);
+        Map<Integer, ProductPriceDTO> products = new HashMap<>();
+
+        int attrValueId = 1;
+
+        for (int productId = 1; productId <= count; productId++) {
+
+            List<ProductPriceDTO.AttributeDTO> attributes = new ArrayList<>();
+
+            for (int a = 0; a < ATTRIBUTES_PER_PRODUCT; a++) {
+
+                List<ProductPriceDTO.AttributeValueDTO> values = new ArrayList<>();
+
+                for (int v = 0; v < valuesPerAttribute; v++) {
+                    values.add(ProductPriceDTO.AttributeValueDTO.builder()
+                            .attrValueId(attrValueId++)
+                            .name("Value " + a + "." + v)
+                            .extraPrice(random.nextInt(4) == 0 ? null : money(random, 30))
+                            .build());
+                }
+
+                attributes.add(ProductPriceDTO.AttributeDTO.builder()
+                        .name("Attribute " + a)
+                        .values(values)
+                        .build());
+            }
+
+            products.put(productId, ProductPriceDTO.builder()
+                    .productTmplId(productId)
+                    .name("Product " + productId)
+                    .description("Description of product " + productId)
+                    .pictureUrl("https://cdn.example/products/" + productId + ".png")
+                    .listPrice(random.nextInt(10) == 0 ? null : money(random, 400))
+                    .attributes(attributes)
+                    .build());
+        }
+
+        return products;
+    }
+
+    static List<ShoppingCartView.Line> lines(Map<Integer, ProductPriceDTO> products, long seed) {
+
+        Random random = new Random(seed);
+        List<ShoppingCartView.Line> lines = new ArrayList<>();
+
+        for (ProductPriceDTO product : products.values()) {
+
+            Set<Integer> selected = new HashSet<>();
+
+            for (ProductPriceDTO.AttributeDTO attribute : product.attributes()) {
+                for (ProductPriceDTO.AttributeValueDTO value : attribute.values()) {
+                    if (random.nextInt(3) == 0) {
+                        selected.add(value.attrValueId());
+                    }
+                }
+            }
+
+            lines.add(new ShoppingCartView.Line(
+                    new UUID(seed, product.productTmplId()),
+                    product.productTmplId(),
+                    (short) (1 + random.nextInt(5)),
+                    selected.isEmpty() && random.nextBoolean() ? null : selected
+            ));
+        }
+
+        return lines;
+    }
+
+    static List<OrderAdjustment> adjustments() {
+        return List.of(
+                OrderAdjustment.builder()
+                        .key(AdjustmentKeys.SHIPPING_COST)
+                        .type(AdjustmentType.CHARGE)
+                        .name("Costo de envío")
+                        .amount(45.0)
+                        .build()
+        );
+    }
+
+    private static BigDecimal money(Random random, int max) {
+        return BigDecimal.valueOf(random.nextInt(max * 100), 2);
+    }
+}
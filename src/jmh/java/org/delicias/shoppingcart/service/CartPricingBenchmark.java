@@ -0,0 +1,74 @@
+package org.delicias.shoppingcart.service;
+
+import org.delicias.common.adjusment.OrderAdjustment;
+import org.delicias.common.dto.order.CandidateOrderDTO;
+import org.delicias.common.dto.product.ProductPriceDTO;
+import org.delicias.shoppingcart.domain.model.ShoppingCartView;
+import org.delicias.shoppingcart.dto.ShoppingCartDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pricing of synthetic carts. Run with {@code mvn -Pbenchmarks compile exec:exec},
+ * which enables the gc profiler to report the allocation rate next to throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CartPricingBenchmark {
+
+    @Param({"1", "10", "50", "200"})
+    int lines;
+
+    @Param({"4", "32"})
+    int valuesPerAttribute;
+
+    private final CartPricingEngine pricingEngine = new CartPricingEngine();
+
+    private Map<Integer, ProductPriceDTO> products;
+    private List<ShoppingCartView.Line> cartLines;
+    private List<OrderAdjustment> adjustments;
+    private ShoppingCartDTO cart;
+
+    @Setup
+    public void setup() {
+
+        products = CartFixtures.products(lines, valuesPerAttribute, 42L);
+        cartLines = CartFixtures.lines(products, 42L);
+        adjustments = CartFixtures.adjustments();
+
+        CartPricingEngine.PricedLines priced = pricingEngine.price(cartLines, products);
+
+        cart = ShoppingCartDTO.builder()
+                .id(UUID.randomUUID())
+                .restaurantTmplId(1)
+                .shoppingLines(priced.lines())
+                .charges(ShoppingCartService.getShoppingCharges(adjustments))
+                .hasDeliveryAddress(false)
+                .subtotal(priced.subtotal())
+                .total(priced.subtotal())
+                .build();
+    }
+
+    @Benchmark
+    public CartPricingEngine.PricedLines priceLines() {
+        return pricingEngine.price(cartLines, products);
+    }
+
+    @Benchmark
+    public List<ShoppingCartDTO.ShoppingCharge> shoppingCharges() {
+        return ShoppingCartService.getShoppingCharges(adjustments);
+    }
+
+    @Benchmark
+    public CandidateOrderDTO candidateOrder() {
+        return ShoppingCartService.toCandidateOrder(cart);
+    }
+}
@@ -0,0 +1,23 @@
+package org.delicias.catalog.domain.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+@Entity
+@Table(name = "catalog_state")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogState {
+
+    // Single row
+    public static final short ID = 1;
+
+    @Id
+    private Short id;
+
+    // Catalog version shared by every instance, bumped by each invalidation
+    @Column(name = "version")
+    private Long version;
+}
@@ -0,0 +1,97 @@
+package org.delicias.catalog.domain.repository;
+
+import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.Query;
+import org.delicias.catalog.domain.model.CatalogState;
+import org.delicias.telemetry.Instrumented;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@ApplicationScoped
+public class CatalogStateRepository implements PanacheRepositoryBase<CatalogState, Short> {
+
+    @Instrumented("delicias.repository")
+    public long currentVersion() {
+        return getEntityManager()
+                .createQuery("SELECT s.version FROM CatalogState s WHERE s.id = :id", Long.class)
+                .setParameter("id", CatalogState.ID)
+                .getSingleResult();
+    }
+
+    /**
+     * Bumps the shared catalog version and notifies every instance listening on
+     * {@code channel} with {@code <version><suffix>}, in one statement. Postgres delivers
+     * the notification when the transaction commits.
+     */
+    @Instrumented("delicias.repository")
+    public long bumpVersion(String channel, String payloadSuffix) {
+
+        Object[] row = (Object[]) getEntityManager().createNativeQuery("""
+                WITH bumped AS (
+                    UPDATE catalog_state SET version = version + 1 WHERE id = :id RETURNING version
+                )
+                SELECT version, pg_notify(:channel, version || :suffix) FROM bumped
+                """)
+                .setParameter("id", CatalogState.ID)
+                .setParameter("channel", channel)
+                .setParameter("suffix", payloadSuffix)
+                .getSingleResult();
+
+        return ((Number) row[0]).longValue();
+    }
+
+    /**
+     * Records the fingerprint of the prices just loaded for each product and returns the
+     * products whose fingerprint was known and differs. Products seen for the first time
+     * are recorded without being reported. Pass the ids sorted, so concurrent calls lock
+     * the rows in the same order.
+     */
+    @Instrumented("delicias.repository")
+    public Set<Integer> recordPrices(Map<Integer, Long> fingerprints) {
+
+        if (fingerprints.isEmpty()) {
+            return Set.of();
+        }
+
+        // One statement for every product: INSERT ... VALUES (id, fingerprint), ...
+        StringBuilder values = new StringBuilder();
+        List<Object> parameters = new ArrayList<>(fingerprints.size() * 2);
+
+        fingerprints.forEach((productTmplId, fingerprint) -> {
+            values.append(values.isEmpty() ? "" : ", ")
+                    .append("(CAST(?").append(parameters.size() + 1).append(" AS int), CAST(?")
+                    .append(parameters.size() + 2).append(" AS bigint))");
+            parameters.add(productTmplId);
+            parameters.add(fingerprint);
+        });
+
+        Query query = getEntityManager().createNativeQuery(
+                "INSERT INTO catalog_price (product_tmpl_id, fingerprint) VALUES " + values
+                        + " ON CONFLICT (product_tmpl_id) DO UPDATE SET fingerprint = EXCLUDED.fingerprint"
+                        + " WHERE catalog_price.fingerprint <> EXCLUDED.fingerprint"
+                        + " RETURNING product_tmpl_id, (xmax = 0)"
+        );
+
+        for (int i = 0; i < parameters.size(); i++) {
+            query.setParameter(i + 1, parameters.get(i));
+        }
+
+        Set<Integer> changed = new HashSet<>();
+
+        for (Object row : query.getResultList()) {
+
+            Object[] result = (Object[]) row;
+
+            if (!(Boolean) result[1]) {
+                changed.add(((Number) result[0]).intValue());
+            }
+        }
+
+        return changed;
+    }
+}
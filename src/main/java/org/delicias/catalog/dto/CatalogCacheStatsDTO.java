@@ -0,0 +1,20 @@
+package org.delicias.catalog.dto;
+
+import lombok.Builder;
+
+@Builder
+public record CatalogCacheStatsDTO(
+        long version,
+        Stats prices,
+        Stats candidates
+) {
+
+    @Builder
+    public record Stats(
+            long size,
+            long hits,
+            long misses,
+            long evictions,
+            double hitRate
+    ) {}
+}
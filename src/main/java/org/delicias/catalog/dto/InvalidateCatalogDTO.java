@@ -0,0 +1,8 @@
+package org.delicias.catalog.dto;
+
+import java.util.Set;
+
+public record InvalidateCatalogDTO(
+        // Empty or missing means the whole catalog
+        Set<Integer> productTmplIds
+) { }
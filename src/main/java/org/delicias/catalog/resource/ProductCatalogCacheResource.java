@@ -0,0 +1,39 @@
+package org.delicias.catalog.resource;
+
+import io.quarkus.security.Authenticated;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.delicias.catalog.dto.InvalidateCatalogDTO;
+import org.delicias.catalog.service.ProductCatalogCache;
+
+@Authenticated
+@Path("/api/shoppingcart/catalog-cache")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class ProductCatalogCacheResource {
+
+    @Inject
+    ProductCatalogCache catalogCache;
+
+    @GET
+    @Path("/stats")
+    public Response stats() {
+        return Response.ok(
+                catalogCache.stats()
+        ).build();
+    }
+
+    // Called by the products service whenever prices or attributes change
+    // Only other services may drop the caches: every call invalidates them on all instances
+    @POST
+    @Path("/invalidate")
+    @RolesAllowed("${delicias.security.service-role}")
+    public Response invalidate(InvalidateCatalogDTO req) {
+
+        catalogCache.invalidate(req != null ? req.productTmplIds() : null);
+        return Response.noContent().build();
+    }
+}
@@ -0,0 +1,301 @@
+package org.delicias.catalog.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.delicias.catalog.domain.repository.CatalogStateRepository;
+import org.delicias.catalog.dto.CatalogCacheStatsDTO;
+import org.delicias.common.dto.product.ProductCandidateShoppingLineDTO;
+import org.delicias.common.dto.product.ProductPriceDTO;
+import org.delicias.gateway.ProductGateway;
+import org.delicias.shoppingcart.service.CartPricingEngine;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * In-process cache in front of {@link ProductGateway}, keyed by productTmplId.
+ * Only the ids missing from the cache are requested from the products service, and
+ * last-known prices served while it is unavailable are never cached.
+ * Every invalidation bumps {@link #version()} so derived data can tell it is stale. The
+ * version lives in the database: an invalidation bumps it and notifies the other
+ * instances over Postgres NOTIFY, and a periodic check catches up on any missed
+ * notification, so every instance converges on the same version for the same catalog.
+ * Prices loaded again after their entry expired bump it as well when they changed.
+ */
+@ApplicationScoped
+public class ProductCatalogCache {
+
+    public static final String INVALIDATION_CHANNEL = "catalog_invalidated";
+
+    // NOTIFY payloads are limited to 8000 bytes; longer id lists invalidate the whole catalog
+    private static final int MAX_PAYLOAD_IDS_LENGTH = 7000;
+
+    @Inject
+    ProductGateway productGateway;
+
+    @Inject
+    ManagedExecutor executor;
+
+    @Inject
+    CatalogStateRepository stateRepository;
+
+    @ConfigProperty(name = "delicias.catalog.cache.max-size", defaultValue = "10000")
+    long maxSize;
+
+    @ConfigProperty(name = "delicias.catalog.cache.ttl", defaultValue = "PT5M")
+    Duration ttl;
+
+    // Shared version last applied by this instance, loaded at startup
+    private final AtomicLong version = new AtomicLong();
+
+    private Cache<Integer, ProductPriceDTO> prices;
+
+    private Cache<Integer, ProductCandidateShoppingLineDTO> candidates;
+
+    @PostConstruct
+    void init() {
+        prices = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+
+        candidates = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    public ProductGateway.Prices getPrices(Set<Integer> productTmplIds) {
+
+        if (productTmplIds.isEmpty()) {
+            return ProductGateway.Prices.NONE;
+        }
+
+        Map<Integer, ProductPriceDTO> found = new HashMap<>(prices.getAllPresent(productTmplIds));
+
+        Set<Integer> missingIds = productTmplIds.stream()
+                .filter(id -> !found.containsKey(id))
+                .collect(Collectors.toSet());
+
+        if (missingIds.isEmpty()) {
+            return new ProductGateway.Prices(new ArrayList<>(found.values()), false);
+        }
+
+        ProductGateway.Prices loaded = productGateway.getPrices(missingIds);
+
+        if (!loaded.lastKnown()) {
+            checkReloaded(loaded.prices());
+        }
+
+        for (ProductPriceDTO price : loaded.prices()) {
+
+            // Last-known prices only serve this call, the next one asks the products service again
+            if (!loaded.lastKnown()) {
+                prices.put(price.productTmplId(), price);
+            }
+
+            found.putIfAbsent(price.productTmplId(), price);
+        }
+
+        return new ProductGateway.Prices(new ArrayList<>(found.values()), loaded.lastKnown());
+    }
+
+    public ProductCandidateShoppingLineDTO getCandidate(Integer productTmplId) {
+        return candidates.get(productTmplId, this::loadCandidate);
+    }
+
+    /**
+     * The products service has no bulk candidate endpoint, so the missing ids are
+     * requested concurrently, one call per product.
+     */
+    public Map<Integer, ProductCandidateShoppingLineDTO> getCandidates(Set<Integer> productTmplIds) {
+
+        if (productTmplIds.isEmpty()) {
+            return Map.of();
+        }
+
+        return candidates.getAll(productTmplIds, this::loadCandidates);
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * How long a price is served before it is loaded again and checked for changes.
+     */
+    public Duration ttl() {
+        return ttl;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        version.set(QuarkusTransaction.requiringNew().call(stateRepository::currentVersion));
+    }
+
+    /**
+     * Invalidates the products, or the whole catalog when no id is given, on every
+     * instance: this one right away, the others when the notification reaches them.
+     */
+    public void invalidate(Set<Integer> productTmplIds) {
+
+        String suffix = payloadSuffix(productTmplIds);
+
+        long shared = QuarkusTransaction.requiringNew().call(
+                () -> stateRepository.bumpVersion(INVALIDATION_CHANNEL, suffix)
+        );
+
+        apply(shared, suffix.isEmpty() ? Set.of() : productTmplIds);
+    }
+
+    /**
+     * Compares the prices loaded from the products service with the fingerprints recorded
+     * by the last load on any instance. Products whose prices changed, typically picked up
+     * when their entry expired, are invalidated everywhere, so cart tags and read models
+     * priced from the old prices stop matching.
+     */
+    void checkReloaded(List<ProductPriceDTO> loaded) {
+
+        Map<Integer, Long> fingerprints = new TreeMap<>();
+
+        for (ProductPriceDTO price : loaded) {
+            fingerprints.put(price.productTmplId(), CartPricingEngine.fingerprint(price));
+        }
+
+        Set<Integer> changed = new HashSet<>();
+
+        // Recorded and bumped together, so a change is never recorded without its invalidation
+        Long shared = QuarkusTransaction.requiringNew().call(() -> {
+            changed.addAll(stateRepository.recordPrices(fingerprints));
+            return changed.isEmpty() ? null : stateRepository.bumpVersion(INVALIDATION_CHANNEL, payloadSuffix(changed));
+        });
+
+        if (shared != null) {
+            apply(shared, payloadSuffix(changed).isEmpty() ? Set.of() : changed);
+        }
+    }
+
+    private static String payloadSuffix(Set<Integer> productTmplIds) {
+
+        String ids = productTmplIds == null ? "" : productTmplIds.stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+
+        return ids.isEmpty() || ids.length() > MAX_PAYLOAD_IDS_LENGTH ? "" : ":" + ids;
+    }
+
+    /**
+     * Invalidation received from the NOTIFY channel, {@code <version>[:<id>,<id>...]}.
+     * Versions this instance already reached are skipped.
+     */
+    public void onInvalidation(String payload) {
+
+        int separator = payload.indexOf(':');
+
+        if (separator < 0) {
+            apply(Long.parseLong(payload), Set.of());
+            return;
+        }
+
+        Set<Integer> ids = Arrays.stream(payload.substring(separator + 1).split(","))
+                .map(Integer::valueOf)
+                .collect(Collectors.toSet());
+
+        apply(Long.parseLong(payload.substring(0, separator)), ids);
+    }
+
+    /**
+     * Catches up with invalidations whose notification this instance missed (listener
+     * disabled or reconnecting): a newer shared version invalidates the whole catalog.
+     */
+    @Scheduled(
+            identity = "catalog-version-sync",
+            every = "${delicias.catalog.version.sync-every:30s}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP
+    )
+    void syncVersion() {
+        apply(QuarkusTransaction.requiringNew().call(stateRepository::currentVersion), Set.of());
+    }
+
+    private synchronized void apply(long sharedVersion, Set<Integer> productTmplIds) {
+
+        if (sharedVersion <= version.get()) {
+            return;
+        }
+
+        // A skipped version may have been a full invalidation this instance never saw
+        if (productTmplIds.isEmpty() || sharedVersion > version.get() + 1) {
+            prices.invalidateAll();
+            candidates.invalidateAll();
+        } else {
+            prices.invalidateAll(productTmplIds);
+            candidates.invalidateAll(productTmplIds);
+        }
+
+        version.set(sharedVersion);
+    }
+
+    public CatalogCacheStatsDTO stats() {
+        return CatalogCacheStatsDTO.builder()
+                .version(version())
+                .prices(toStats(prices))
+                .candidates(toStats(candidates))
+                .build();
+    }
+
+    private Map<Integer, ProductCandidateShoppingLineDTO> loadCandidates(Set<? extends Integer> missingIds) {
+
+        Map<Integer, CompletableFuture<ProductCandidateShoppingLineDTO>> calls = new HashMap<>();
+
+        for (Integer id : missingIds) {
+            calls.put(id, CompletableFuture.supplyAsync(() -> loadCandidate(id), executor));
+        }
+
+        Map<Integer, ProductCandidateShoppingLineDTO> loaded = new HashMap<>();
+
+        calls.forEach((id, call) -> {
+            try {
+                loaded.put(id, call.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        });
+
+        return loaded;
+    }
+
+    private ProductCandidateShoppingLineDTO loadCandidate(Integer id) {
+        return productGateway.getCandidate(id);
+    }
+
+    private static CatalogCacheStatsDTO.Stats toStats(Cache<?, ?> cache) {
+
+        CacheStats stats = cache.stats();
+
+        return CatalogCacheStatsDTO.Stats.builder()
+                .size(cache.estimatedSize())
+                .hits(stats.hitCount())
+                .misses(stats.missCount())
+                .evictions(stats.evictionCount())
+                .hitRate(stats.hitRate())
+                .build();
+    }
+}
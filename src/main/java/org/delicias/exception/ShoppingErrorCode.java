@@ -3,5 +3,8 @@ package org.delicias.exception;
 public enum ShoppingErrorCode {
     SHOPPING_BAD_PRICES,
     SHOPPING_BAD_RESTAURANT_LAT_LNG,
-    SHOPPING_BAD_USER_ADDRESS_DEFAULT
+    SHOPPING_BAD_USER_ADDRESS_DEFAULT,
+    SHOPPING_VERSION_MISMATCH,
+    SHOPPING_CONCURRENT_MODIFICATION,
+    SHOPPING_DEPENDENCY_UNAVAILABLE
 }
@@ -0,0 +1,18 @@
+package org.delicias.gateway;
+
+import org.delicias.exception.ShoppingBusinessException;
+import org.delicias.exception.ShoppingErrorCode;
+
+final class GatewayErrors {
+
+    private GatewayErrors() {
+    }
+
+    static ShoppingBusinessException unavailable(String service) {
+        return new ShoppingBusinessException(
+                "El servicio de " + service + " no está disponible, intenta más tarde.",
+                ShoppingErrorCode.SHOPPING_DEPENDENCY_UNAVAILABLE,
+                503
+        );
+    }
+}
@@ -0,0 +1,226 @@
+package org.delicias.gateway;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.Response;
+import org.delicias.common.dto.product.ProductCandidateShoppingLineDTO;
+import org.delicias.common.dto.product.ProductPriceDTO;
+import org.delicias.exception.ShoppingBusinessException;
+import org.delicias.exception.ShoppingErrorCode;
+import org.delicias.rest.clients.ProductClient;
+import org.delicias.telemetry.Instrumented;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+import org.eclipse.microprofile.faulttolerance.Bulkhead;
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
+import org.eclipse.microprofile.faulttolerance.Fallback;
+import org.eclipse.microprofile.faulttolerance.Timeout;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Calls to the products service behind a timeout, a concurrency bulkhead and a circuit
+ * breaker, tunable per client through the MicroProfile Fault Tolerance keys
+ * ({@code org.delicias.gateway.ProductGateway/Timeout/value}, ...). Business errors
+ * (unknown product, partial prices) never open the circuit.
+ */
+@ApplicationScoped
+@Instrumented("delicias.client")
+@Timeout(800)
+@Bulkhead(20)
+@CircuitBreaker(
+        requestVolumeThreshold = 20,
+        failureRatio = 0.5,
+        delay = 5000,
+        skipOn = {NotFoundException.class, ShoppingBusinessException.class}
+)
+public class ProductGateway {
+
+    @Inject
+    @RestClient
+    ProductClient productClient;
+
+    @Inject
+    ManagedExecutor executor;
+
+    @ConfigProperty(name = "delicias.gateway.products.hedge.enabled", defaultValue = "false")
+    boolean hedgeEnabled;
+
+    @ConfigProperty(name = "delicias.gateway.products.hedge.delay", defaultValue = "PT0.15S")
+    Duration hedgeDelay;
+
+    @ConfigProperty(name = "delicias.gateway.products.last-known.max-size", defaultValue = "50000")
+    long lastKnownMaxSize;
+
+    @ConfigProperty(name = "delicias.gateway.products.last-known.ttl", defaultValue = "PT24H")
+    Duration lastKnownTtl;
+
+    // Last prices read from the products service, served when it is unavailable
+    private Cache<Integer, ProductPriceDTO> lastKnownPrices;
+
+    @PostConstruct
+    void init() {
+        lastKnownPrices = Caffeine.newBuilder()
+                .maximumSize(lastKnownMaxSize)
+                .expireAfterWrite(lastKnownTtl)
+                .build();
+    }
+
+    /**
+     * With hedging enabled, a second identical request is sent when the first one has not
+     * answered after {@code hedge.delay}, and the first successful answer wins. While the
+     * products service is unavailable the last prices it returned are served instead,
+     * flagged as {@link Prices#lastKnown()}.
+     */
+    @Instrumented(value = "delicias.client", operation = "getProductTmplPrices")
+    @Fallback(fallbackMethod = "lastKnownPrices", skipOn = ShoppingBusinessException.class)
+    public Prices getPrices(Set<Integer> productTmplIds) {
+
+        List<ProductPriceDTO> prices = hedgeEnabled
+                ? hedged(() -> fetchPrices(productTmplIds))
+                : fetchPrices(productTmplIds);
+
+        prices.forEach(price -> lastKnownPrices.put(price.productTmplId(), price));
+
+        return new Prices(prices, false);
+    }
+
+    @Instrumented(value = "delicias.client", operation = "getProductCandidateById")
+    @Fallback(fallbackMethod = "candidateUnavailable", skipOn = {NotFoundException.class, ShoppingBusinessException.class})
+    public ProductCandidateShoppingLineDTO getCandidate(Integer id) {
+        try (Response response = productClient.getProductCandidateById(id)) {
+            return response.readEntity(ProductCandidateShoppingLineDTO.class);
+
+        } catch (WebApplicationException e) {
+
+            Response errorResponse = e.getResponse();
+
+            if (errorResponse.getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+                throw new NotFoundException("El producto con ID " + id + " no existe en el catálogo.");
+            }
+
+
+            throw new RuntimeException("El servicio de productos devolvió un error: " + errorResponse.getStatus());
+        } catch (ProcessingException e) {
+
+            throw new RuntimeException("Error técnico de comunicación o formato de datos", e);
+        }
+    }
+
+    Prices lastKnownPrices(Set<Integer> productTmplIds) {
+
+        Map<Integer, ProductPriceDTO> known = lastKnownPrices.getAllPresent(productTmplIds);
+
+        if (known.size() < productTmplIds.size()) {
+            throw GatewayErrors.unavailable("productos");
+        }
+
+        return new Prices(new ArrayList<>(known.values()), true);
+    }
+
+    ProductCandidateShoppingLineDTO candidateUnavailable(Integer id) {
+        throw GatewayErrors.unavailable("productos");
+    }
+
+    private List<ProductPriceDTO> fetchPrices(Set<Integer> productTmplIds) {
+
+        try (Response response = productClient.getProductTmplPrices(new HashSet<>(productTmplIds))) {
+
+            if(response.getStatus() == Response.Status.PARTIAL_CONTENT.getStatusCode()) {
+
+                throw new ShoppingBusinessException(
+                        "Can't get prices",
+                        ShoppingErrorCode.SHOPPING_BAD_PRICES,
+                        400
+                );
+            }
+
+            return response.readEntity(new GenericType<>() {});
+        }
+    }
+
+    /**
+     * Prices of the products. {@code lastKnown} prices come from the fallback and may be
+     * up to {@code last-known.ttl} old: they can be shown, but not cached or stored.
+     */
+    public record Prices(
+            List<ProductPriceDTO> prices,
+            boolean lastKnown
+    ) {
+
+        public static final Prices NONE = new Prices(List.of(), false);
+    }
+
+    private <T> T hedged(Supplier<T> call) {
+
+        CompletableFuture<T> winner = new CompletableFuture<>();
+
+        // Requests still in flight; the call fails only when none of them can succeed anymore
+        AtomicInteger pending = new AtomicInteger(1);
+        List<CompletableFuture<T>> attempts = new CopyOnWriteArrayList<>();
+
+        BiConsumer<T, Throwable> settle = (value, error) -> {
+            if (error == null) {
+                winner.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                winner.completeExceptionally(error);
+            }
+        };
+
+        CompletableFuture<T> first = CompletableFuture.supplyAsync(call, executor);
+        attempts.add(first);
+        first.whenComplete(settle);
+
+        CompletableFuture.delayedExecutor(hedgeDelay.toMillis(), TimeUnit.MILLISECONDS, executor)
+                .execute(() -> {
+                    int inFlight;
+                    do {
+                        inFlight = pending.get();
+                        if (inFlight == 0 || winner.isDone()) {
+                            return;
+                        }
+                    } while (!pending.compareAndSet(inFlight, inFlight + 1));
+
+                    CompletableFuture<T> hedge = CompletableFuture.supplyAsync(call, executor);
+                    attempts.add(hedge);
+                    hedge.whenComplete(settle);
+
+                    // The caller may have given up while the hedge was being sent
+                    if (winner.isCancelled()) {
+                        hedge.cancel(true);
+                    }
+                });
+
+        // get() rather than join(), so the @Timeout interrupt ends the wait
+        try {
+            return winner.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            winner.cancel(true);
+            attempts.forEach(attempt -> attempt.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Products service call interrupted", e);
+        }
+    }
+}
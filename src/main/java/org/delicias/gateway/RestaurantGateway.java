@@ -0,0 +1,58 @@
+package org.delicias.gateway;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.delicias.common.dto.restaurant.RestaurantLatLngDTO;
+import org.delicias.common.dto.restaurant.RestaurantResumeDTO;
+import org.delicias.exception.ShoppingBusinessException;
+import org.delicias.rest.clients.RestaurantClient;
+import org.delicias.telemetry.Instrumented;
+import org.eclipse.microprofile.faulttolerance.Bulkhead;
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
+import org.eclipse.microprofile.faulttolerance.Fallback;
+import org.eclipse.microprofile.faulttolerance.Timeout;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Calls to the restaurants service behind a timeout, a bulkhead and a circuit breaker,
+ * tunable through {@code org.delicias.gateway.RestaurantGateway/<policy>/<parameter>}.
+ * Callers normally go through RestaurantCache, which keeps serving stale entries while
+ * this gateway fails.
+ */
+@ApplicationScoped
+@Instrumented("delicias.client")
+@Timeout(800)
+@Bulkhead(20)
+@CircuitBreaker(
+        requestVolumeThreshold = 20,
+        failureRatio = 0.5,
+        delay = 5000,
+        skipOn = ShoppingBusinessException.class
+)
+public class RestaurantGateway {
+
+    @Inject
+    @RestClient
+    RestaurantClient restaurantClient;
+
+    @Fallback(fallbackMethod = "resumesUnavailable", skipOn = ShoppingBusinessException.class)
+    public List<RestaurantResumeDTO> getRestaurantsByIds(Set<Integer> restaurantTmplIds) {
+        return restaurantClient.getRestaurantsByIds(restaurantTmplIds);
+    }
+
+    @Fallback(fallbackMethod = "latLngUnavailable", skipOn = ShoppingBusinessException.class)
+    public RestaurantLatLngDTO getLatLng(Integer restaurantTmplId) {
+        return restaurantClient.getLatLng(restaurantTmplId);
+    }
+
+    List<RestaurantResumeDTO> resumesUnavailable(Set<Integer> restaurantTmplIds) {
+        throw GatewayErrors.unavailable("restaurantes");
+    }
+
+    RestaurantLatLngDTO latLngUnavailable(Integer restaurantTmplId) {
+        throw GatewayErrors.unavailable("restaurantes");
+    }
+}
@@ -0,0 +1,82 @@
+package org.delicias.gateway;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.Response;
+import org.delicias.common.dto.user.DefaultAddressDTO;
+import org.delicias.common.dto.user.UserShoppingAddressDTO;
+import org.delicias.exception.ShoppingBusinessException;
+import org.delicias.exception.ShoppingErrorCode;
+import org.delicias.rest.clients.UserClient;
+import org.delicias.telemetry.Instrumented;
+import org.eclipse.microprofile.faulttolerance.Bulkhead;
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
+import org.eclipse.microprofile.faulttolerance.Fallback;
+import org.eclipse.microprofile.faulttolerance.Timeout;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import java.util.Optional;
+
+/**
+ * Calls to the users service behind a timeout, a bulkhead and a circuit breaker,
+ * tunable through {@code org.delicias.gateway.UserGateway/<policy>/<parameter>}.
+ * An empty result means the address is unavailable right now, not that it is missing.
+ */
+@ApplicationScoped
+@Instrumented("delicias.client")
+@Timeout(800)
+@Bulkhead(20)
+@CircuitBreaker(
+        requestVolumeThreshold = 20,
+        failureRatio = 0.5,
+        delay = 5000,
+        skipOn = ShoppingBusinessException.class
+)
+public class UserGateway {
+
+    @Inject
+    @RestClient
+    UserClient userClient;
+
+    @Fallback(fallbackMethod = "addressUnavailable", skipOn = ShoppingBusinessException.class)
+    public Optional<DefaultAddressDTO> getUserAddressDefault() {
+
+        try (Response response = userClient.getUserAddressDefault()) {
+
+            if(response.getStatus() == Response.Status.PARTIAL_CONTENT.getStatusCode()) {
+
+                throw new ShoppingBusinessException(
+                        "Can't get default user address",
+                        ShoppingErrorCode.SHOPPING_BAD_USER_ADDRESS_DEFAULT,
+                        400
+                );
+            }
+            return Optional.of(response.readEntity(DefaultAddressDTO.class));
+        }
+    }
+
+    @Fallback(fallbackMethod = "addressUnavailable", skipOn = ShoppingBusinessException.class)
+    public Optional<UserShoppingAddressDTO> getUserAddress(Integer addressId) {
+
+        try (Response response = userClient.getUserAddress(addressId)) {
+
+            if(response.getStatus() == Response.Status.PARTIAL_CONTENT.getStatusCode()) {
+
+                throw new ShoppingBusinessException(
+                        "Can't get shopping address",
+                        ShoppingErrorCode.SHOPPING_BAD_USER_ADDRESS_DEFAULT,
+                        400
+                );
+            }
+            return Optional.of(response.readEntity(UserShoppingAddressDTO.class));
+        }
+    }
+
+    Optional<DefaultAddressDTO> addressUnavailable() {
+        return Optional.empty();
+    }
+
+    Optional<UserShoppingAddressDTO> addressUnavailable(Integer addressId) {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,31 @@
+package org.delicias.http;
+
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Outcome of a conditional GET: the body with its tag, or only the tag when the
+ * client's copy is still current.
+ */
+public record Conditional<T>(
+        T body,
+        EntityTag tag
+) {
+
+    public static <T> Conditional<T> notModified(EntityTag tag) {
+        return new Conditional<>(null, tag);
+    }
+
+    public boolean isNotModified() {
+        return body == null;
+    }
+
+    public Response toResponse() {
+
+        if (isNotModified()) {
+            return Response.notModified(tag).build();
+        }
+
+        return Response.ok(body).tag(tag).build();
+    }
+}
@@ -0,0 +1,126 @@
+package org.delicias.http;
+
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.core.EntityTag;
+import org.delicias.exception.ShoppingBusinessException;
+import org.delicias.exception.ShoppingErrorCode;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Entity versions exposed as strong ETags and checked against If-Match / If-None-Match.
+ * Lines are tagged with their version ({@code "42"}); carts with their version and the
+ * shared catalog version ({@code catalog_state}) they were priced with ({@code "42-17"}).
+ * The catalog version moves with every invalidation and with every reload that finds
+ * changed prices, so a tag never outlives the prices it was computed from.
+ */
+public final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    public static EntityTag of(long version) {
+        return new EntityTag(Long.toString(version));
+    }
+
+    public static EntityTag of(long version, long catalogVersion) {
+        return new EntityTag(version + "-" + catalogVersion);
+    }
+
+    /**
+     * Tag for a representation identified by a composite key, e.g. every cart id and version
+     * of a listing: the first 128 bits of its SHA-256.
+     */
+    public static EntityTag digest(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return new EntityTag(HexFormat.of().formatHex(hash, 0, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * If-None-Match check: true when any listed tag equals the current one, comparing
+     * weakly as RFC 9110 requires for this header.
+     */
+    public static boolean matchesAny(String ifNoneMatch, EntityTag current) {
+
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(",")) {
+
+            String tag = candidate.trim();
+
+            if (tag.equals("*")) {
+                return true;
+            }
+
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+
+            if (unquote(tag).equals(current.getValue())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Version required by an If-Match header, or null when the header is absent or {@code *}.
+     * For cart tags only the cart version is compared.
+     */
+    public static Long expectedVersion(String ifMatch) {
+
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+
+        String tag = ifMatch.trim();
+
+        if (tag.startsWith("W/")) {
+            throw new BadRequestException("If-Match requiere un ETag fuerte.");
+        }
+
+        tag = unquote(tag);
+
+        int separator = tag.indexOf('-');
+
+        if (separator > 0) {
+            tag = tag.substring(0, separator);
+        }
+
+        try {
+            return Long.parseLong(tag);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("If-Match inválido: " + ifMatch);
+        }
+    }
+
+    public static void checkVersion(Long expectedVersion, long currentVersion) {
+
+        if (expectedVersion != null && expectedVersion != currentVersion) {
+            throw new ShoppingBusinessException(
+                    "La versión " + expectedVersion + " ya no es la actual (" + currentVersion + ").",
+                    ShoppingErrorCode.SHOPPING_VERSION_MISMATCH,
+                    412
+            );
+        }
+    }
+
+    private static String unquote(String tag) {
+
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            return tag.substring(1, tag.length() - 1);
+        }
+
+        return tag;
+    }
+}
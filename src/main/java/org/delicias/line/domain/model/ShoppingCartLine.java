@@ -4,8 +4,11 @@ import jakarta.persistence.*;
 import lombok.*;
 import org.delicias.shoppingcart.domain.model.ShoppingCart;
 
+import java.math.BigDecimal;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 @Entity
 @Table(name = "shopping_cart_line")
@@ -16,11 +19,14 @@ import java.util.UUID;
 @NoArgsConstructor
 public class ShoppingCartLine {
 
+    // qty is a smallint column
+    public static final short MAX_QTY = Short.MAX_VALUE;
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private UUID id;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "shopping_cart_uuid", referencedColumnName = "id")
     private ShoppingCart shoppingCart;
 
@@ -33,8 +39,47 @@ public class ShoppingCartLine {
     @Column(columnDefinition = "int[]", name = "attr_value_ids")
     private Set<Integer> attrValuesIds;
 
+    // Canonical form of attrValuesIds, part of the (cart, product, attributes) unique key
+    @Column(name = "attr_key")
+    private String attrKey;
+
+    @Version
+    @Builder.Default
+    @Column(name = "version")
+    private Long version = 0L;
+
+    // Null when never priced
+    @Column(name = "price_total")
+    private BigDecimal priceTotal;
+
+    // CartPricingEngine.fingerprint of the prices priceTotal was computed from
+    @Column(name = "price_fingerprint")
+    private Long priceFingerprint;
+
     public void updateQty(Short qty, Set<Integer> attrValuesIds) {
         this.qty = qty;
         this.attrValuesIds = attrValuesIds;
     }
+
+    @PrePersist
+    @PreUpdate
+    void normalizeAttrKey() {
+        this.attrKey = attrKeyOf(attrValuesIds);
+    }
+
+    /**
+     * Sorted, comma separated attribute value ids; empty when there are none.
+     */
+    public static String attrKeyOf(Set<Integer> attrValuesIds) {
+
+        if (attrValuesIds == null || attrValuesIds.isEmpty()) {
+            return "";
+        }
+
+        return attrValuesIds.stream()
+                .filter(Objects::nonNull)
+                .sorted()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+    }
 }
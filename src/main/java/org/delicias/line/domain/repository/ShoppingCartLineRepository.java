@@ -2,15 +2,181 @@ package org.delicias.line.domain.repository;
 
 import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.PersistenceException;
 import org.delicias.line.domain.model.ShoppingCartLine;
+import org.delicias.telemetry.Instrumented;
+import org.hibernate.exception.ConstraintViolationException;
 
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 @ApplicationScoped
 public class ShoppingCartLineRepository implements PanacheRepositoryBase<ShoppingCartLine, UUID> {
 
+    private static final String CART_FOREIGN_KEY = "line_shopping_cart_uuid_fkey";
+
+    private static final String LINE_KEY_INDEX = "ux_shopping_cart_line_product_attrs";
+
+    @Instrumented("delicias.repository")
     public List<ShoppingCartLine> getByShoppingCart(UUID shoppingCartId) {
         return list("shoppingCart.id", shoppingCartId);
     }
+
+    @Instrumented("delicias.repository")
+    public Optional<ShoppingCartLine> findByKey(UUID shoppingCartId, Integer productTmplId, String attrKey) {
+        return find("shoppingCart.id = ?1 AND productTmplId = ?2 AND attrKey = ?3", shoppingCartId, productTmplId, attrKey)
+                .firstResultOptional();
+    }
+
+    /**
+     * Inserts the line, or adds the qty to the line that already holds the same product
+     * and attribute set in the cart. Backed by the (cart, product, attr_key) unique index,
+     * so concurrent adds merge instead of creating duplicates. When the cart was deleted
+     * concurrently the insert fails on its foreign key, reported as an optimistic lock
+     * failure so the caller can retry against a fresh cart. Returns empty, changing
+     * nothing, when the merged qty would exceed {@link ShoppingCartLine#MAX_QTY}.
+     */
+    @Instrumented("delicias.repository")
+    public Optional<UpsertResult> upsert(UUID shoppingCartId, Integer productTmplId, Short qty, Set<Integer> attrValuesIds) {
+
+        String sql = """
+        INSERT INTO shopping_cart_line (id, shopping_cart_uuid, product_tmpl_id, qty, attr_value_ids, attr_key)
+        VALUES (
+            uuid_generate_v4(), :shoppingCartId, :productTmplId, :qty,
+            CASE WHEN :attrKey = '' THEN NULL ELSE CAST(string_to_array(:attrKey, ',') AS int[]) END,
+            :attrKey
+        )
+        ON CONFLICT (shopping_cart_uuid, product_tmpl_id, attr_key)
+        DO UPDATE SET qty = shopping_cart_line.qty + EXCLUDED.qty, version = shopping_cart_line.version + 1
+        WHERE CAST(shopping_cart_line.qty AS int) + EXCLUDED.qty <= :maxQty
+        RETURNING id, (xmax = 0), qty, price_total
+        """;
+
+        try {
+            List<?> rows = getEntityManager().createNativeQuery(sql)
+                    .setParameter("shoppingCartId", shoppingCartId)
+                    .setParameter("productTmplId", productTmplId)
+                    .setParameter("qty", qty)
+                    .setParameter("attrKey", ShoppingCartLine.attrKeyOf(attrValuesIds))
+                    .setParameter("maxQty", (int) ShoppingCartLine.MAX_QTY)
+                    .getResultList();
+
+            if (rows.isEmpty()) {
+                // Only the merge condition filters rows out: the line exists and is left as it was
+                return Optional.empty();
+            }
+
+            Object[] result = (Object[]) rows.get(0);
+
+            return Optional.of(new UpsertResult(
+                    (UUID) result[0],
+                    (Boolean) result[1],
+                    ((Number) result[2]).shortValue(),
+                    (BigDecimal) result[3]
+            ));
+
+        } catch (PersistenceException e) {
+
+            if (violates(e, CART_FOREIGN_KEY)) {
+                throw new OptimisticLockException("ShoppingCart " + shoppingCartId + " was removed", e);
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Flushes the pending line changes. A line moved to an attribute set that a concurrent
+     * add has just inserted for the same product violates the (cart, product, attr_key)
+     * unique index; that is reported as an optimistic lock failure, so the retried request
+     * finds the new line and merges into it.
+     */
+    @Instrumented("delicias.repository")
+    public void flushLines() {
+        try {
+            flush();
+        } catch (PersistenceException e) {
+
+            if (violates(e, LINE_KEY_INDEX)) {
+                throw new OptimisticLockException("A line with the same product and attributes was added", e);
+            }
+
+            throw e;
+        }
+    }
+
+    private static boolean violates(Throwable e, String constraintName) {
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException violation
+                    && constraintName.equals(violation.getConstraintName())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Instrumented("delicias.repository")
+    public void setPriceTotal(UUID lineId, BigDecimal priceTotal, long priceFingerprint) {
+        getEntityManager().createNativeQuery("""
+                UPDATE shopping_cart_line SET price_total = :priceTotal, price_fingerprint = :priceFingerprint
+                WHERE id = :id
+                """)
+                .setParameter("priceTotal", priceTotal)
+                .setParameter("priceFingerprint", priceFingerprint)
+                .setParameter("id", lineId)
+                .executeUpdate();
+    }
+
+    /**
+     * Deletes the line in one statement, only at the expected version when there is one,
+     * and returns what the cart needs to record the removal. Empty when nothing matched.
+     */
+    @Instrumented("delicias.repository")
+    public Optional<RemovedLine> remove(UUID lineId, Long expectedVersion) {
+
+        List<?> rows = getEntityManager().createNativeQuery("""
+                DELETE FROM shopping_cart_line
+                WHERE id = :id AND (:expectedVersion < 0 OR version = :expectedVersion)
+                RETURNING shopping_cart_uuid, price_total
+                """)
+                .setParameter("id", lineId)
+                .setParameter("expectedVersion", expectedVersion != null ? expectedVersion : -1L)
+                .getResultList();
+
+        return rows.stream()
+                .map(row -> (Object[]) row)
+                .map(row -> new RemovedLine((UUID) row[0], (BigDecimal) row[1]))
+                .findFirst();
+    }
+
+    @Instrumented("delicias.repository")
+    public Optional<Long> findVersion(UUID lineId) {
+        return getEntityManager()
+                .createQuery("SELECT l.version FROM ShoppingCartLine l WHERE l.id = :id", Long.class)
+                .setParameter("id", lineId)
+                .getResultStream()
+                .findFirst();
+    }
+
+    public record RemovedLine(
+            UUID shoppingCartId,
+            // Stored total of the line, null when it was never priced
+            BigDecimal priceTotal
+    ) {}
+
+    public record UpsertResult(
+            UUID id,
+            // false when the qty was merged into an existing line
+            boolean inserted,
+            // Resulting qty of the line
+            short qty,
+            // Line total before the upsert, null for a new or never priced line
+            BigDecimal previousTotal
+    ) {}
 }
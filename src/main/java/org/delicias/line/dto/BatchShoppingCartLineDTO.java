@@ -0,0 +1,44 @@
+package org.delicias.line.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+public record BatchShoppingCartLineDTO(
+
+        @NotNull(message = "Restaurant template Id is mandatory")
+        Integer restaurantTmplId,
+
+        @NotEmpty(message = "Operations are mandatory")
+        @Size(max = BatchShoppingCartLineDTO.MAX_OPERATIONS, message = "At most " + BatchShoppingCartLineDTO.MAX_OPERATIONS + " operations per batch")
+        List<@Valid Operation> operations
+) {
+
+    // Bounds the catalog lookups and the statements of one batch
+    public static final int MAX_OPERATIONS = 100;
+
+    public enum Type { ADD, UPDATE, DELETE }
+
+    public record Operation(
+            @NotNull(message = "Operation type is mandatory")
+            Type type,
+
+            // UPDATE and DELETE
+            UUID lineId,
+
+            // ADD
+            Integer productTmplId,
+
+            // ADD and UPDATE
+            @Positive(message = "Qty must be positive")
+            Short qty,
+
+            Set<Integer> attrValues
+    ) { }
+}
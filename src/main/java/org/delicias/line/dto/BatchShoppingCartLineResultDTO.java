@@ -0,0 +1,16 @@
+package org.delicias.line.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+
+import java.util.UUID;
+
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchShoppingCartLineResultDTO(
+        // Null when the batch left the cart empty and it was deleted
+        UUID shoppingCartId,
+        Long version,
+        Integer lineCount
+)
+{ }
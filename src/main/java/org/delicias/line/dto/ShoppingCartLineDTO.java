@@ -13,6 +13,7 @@ public record ShoppingCartLineDTO(
         Integer productTmplId,
         Short qty,
         UUID shoppingCartId,
-        Set<Integer> attrValues
+        Set<Integer> attrValues,
+        Long version
 )
 { }
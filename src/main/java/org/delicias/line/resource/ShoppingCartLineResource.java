@@ -5,8 +5,13 @@ import jakarta.inject.Inject;
 import jakarta.validation.Valid;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
+import org.delicias.http.EntityTags;
 import org.delicias.line.dto.AddShoppingCartLineDTO;
+import org.delicias.line.dto.BatchShoppingCartLineDTO;
+import org.delicias.line.dto.BatchShoppingCartLineResultDTO;
+import org.delicias.line.dto.ShoppingCartLineDTO;
 import org.delicias.line.dto.UpdateShoppingCartLineDTO;
 import org.delicias.line.service.ShoppingCartLineService;
 
@@ -30,39 +35,65 @@ public class ShoppingCartLineResource {
         return Response.ok().build();
     }
 
+    // If-Match takes the cart version returned by a previous batch
+    @POST
+    @Path("/batch")
+    public Response batch(
+            @Valid BatchShoppingCartLineDTO req,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch
+    ) {
+
+        BatchShoppingCartLineResultDTO result = service.applyBatch(req, EntityTags.expectedVersion(ifMatch));
+
+        Response.ResponseBuilder response = Response.ok(result);
+
+        if (result.version() != null) {
+            response.tag(EntityTags.of(result.version()));
+        }
+
+        return response.build();
+    }
+
     @GET
     @Path("/{cartLineId}")
     public Response findById(
             @PathParam("cartLineId") UUID cartLineId
     ) {
-        return Response.ok(
-                service.findById(cartLineId)
-        ).build();
+        ShoppingCartLineDTO line = service.findById(cartLineId);
+
+        return Response.ok(line)
+                .tag(EntityTags.of(line.version()))
+                .build();
     }
 
     @PATCH
     @Path("/{cartLineId}")
     public Response patchLine(
             @PathParam("cartLineId") UUID cartLineId,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
             Map<String, Object> updates) {
 
-        service.path(cartLineId, updates);
-        return Response.noContent().build();
+        long version = service.path(cartLineId, updates, EntityTags.expectedVersion(ifMatch));
+        return Response.noContent().tag(EntityTags.of(version)).build();
     }
 
     @PUT
-    public Response putLine(@Valid UpdateShoppingCartLineDTO req) {
+    public Response putLine(
+            @Valid UpdateShoppingCartLineDTO req,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch
+    ) {
 
-        service.updateLine(req);
-        return Response.noContent().build();
+        long version = service.updateLine(req, EntityTags.expectedVersion(ifMatch));
+        return Response.noContent().tag(EntityTags.of(version)).build();
     }
 
     @DELETE
     @Path("/{cartLineId}")
     public Response deleteById(
-            @PathParam("cartLineId") UUID cartLineId
+            @PathParam("cartLineId") UUID cartLineId,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch
     ) {
-        service.deleteById(cartLineId);
+        service.deleteById(cartLineId, EntityTags.expectedVersion(ifMatch));
         return Response.noContent().build();
     }
 
@@ -1,31 +1,45 @@
 package org.delicias.line.service;
 
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
+import jakarta.persistence.OptimisticLockException;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.NotFoundException;
-import jakarta.ws.rs.ProcessingException;
-import jakarta.ws.rs.WebApplicationException;
-import jakarta.ws.rs.core.Response;
+import org.delicias.catalog.service.ProductCatalogCache;
 import org.delicias.common.dto.product.ProductCandidateShoppingLineDTO;
+import org.delicias.common.dto.product.ProductPriceDTO;
+import org.delicias.gateway.ProductGateway;
+import org.delicias.http.EntityTags;
 import org.delicias.line.domain.model.ShoppingCartLine;
 import org.delicias.line.domain.repository.ShoppingCartLineRepository;
 import org.delicias.line.dto.AddShoppingCartLineDTO;
+import org.delicias.line.dto.BatchShoppingCartLineDTO;
+import org.delicias.line.dto.BatchShoppingCartLineResultDTO;
 import org.delicias.line.dto.ShoppingCartLineDTO;
 import org.delicias.line.dto.UpdateShoppingCartLineDTO;
-import org.delicias.rest.clients.ProductClient;
+import org.delicias.persistence.ReadOnlyTransaction;
+import org.delicias.persistence.RetryOnConflict;
 import org.delicias.rest.security.SecurityContextService;
 import org.delicias.shoppingcart.domain.model.ShoppingCart;
+import org.delicias.shoppingcart.domain.model.ShoppingCartView;
 import org.delicias.shoppingcart.domain.repository.ShoppingCartRepository;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+import org.delicias.shoppingcart.service.CartPricingEngine;
+import org.delicias.telemetry.Instrumented;
 
+import java.math.BigDecimal;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @ApplicationScoped
+@Instrumented("delicias.service")
 public class ShoppingCartLineService {
 
     @Inject
@@ -38,51 +52,53 @@ public class ShoppingCartLineService {
     SecurityContextService security;
 
     @Inject
-    @RestClient
-    ProductClient productClient;
+    ProductCatalogCache catalogCache;
 
+    @Inject
+    CartPricingEngine pricingEngine;
+
+    @Inject
+    Event<CartChangedEvent> cartChanged;
+
+    @RetryOnConflict
     @Transactional
     public void addLine(AddShoppingCartLineDTO req) {
 
         ProductCandidateShoppingLineDTO lineDTO = findProduct(req.productTmplId());
 
+        validateAttrValues(lineDTO, req.attrValues());
 
-        if (req.attrValues() != null && !req.attrValues().isEmpty()) {
-            Set<Integer> validIds = lineDTO.attrValues().stream()
-                    .map(ProductCandidateShoppingLineDTO.AttributeValueDTO::attrValueId)
-                    .collect(Collectors.toSet());
+        Optional<CatalogPrice> price = catalogPrice(req.productTmplId());
 
-            boolean allValid = validIds.containsAll(req.attrValues());
+        ShoppingCart shoppingCart = shoppingRepository.findOrCreate(
+                UUID.fromString(security.userId()),
+                lineDTO.restaurantTmplId()
+        );
 
-            if (!allValid) {
-                throw new BadRequestException("Uno o más atributos seleccionados no pertenecen a este producto.");
-            }
-        }
+        ShoppingCartLineRepository.UpsertResult upsert = lineRepository.upsert(
+                shoppingCart.getId(), req.productTmplId(), req.qty(), req.attrValues()
+        ).orElseThrow(ShoppingCartLineService::qtyTooLarge);
 
-        UUID userUUID = UUID.fromString(security.userId());
+        ShoppingCartRepository.SubtotalChange subtotalChange = price.map(it -> {
+
+            BigDecimal total = lineTotal(it, upsert.id(), upsert.qty(), req.attrValues());
+
+            lineRepository.setPriceTotal(upsert.id(), total, it.fingerprint());
 
-        ShoppingCart shoppingCart = shoppingRepository.findByUserAndRestaurant(userUUID, lineDTO.restaurantTmplId())
-                .orElseGet(() -> {
-                    ShoppingCart newCart = ShoppingCart.builder()
-                            .userUUID(userUUID)
-                            .restaurantTmplId(lineDTO.restaurantTmplId())
-                            .build();
-                    shoppingRepository.persist(newCart);
-                    return newCart;
-                });
-
-
-        lineRepository.persist(
-                ShoppingCartLine.builder()
-                        .shoppingCart(shoppingCart)
-                        .productTmplId(req.productTmplId())
-                        .qty(req.qty())
-                        .attrValuesIds(req.attrValues())
-                        .build()
+            return subtotalChange(total, upsert.inserted() ? BigDecimal.ZERO : upsert.previousTotal());
+        }).orElse(null);
+
+        touch(
+                shoppingCart.getId(),
+                upsert.inserted() ? 1 : 0,
+                upsert.inserted() ? CartChangedEvent.Type.LINE_ADDED : CartChangedEvent.Type.LINE_UPDATED,
+                upsert.id(),
+                subtotalChange
         );
 
     }
 
+    @ReadOnlyTransaction
     public ShoppingCartLineDTO findById(UUID shoppingCartLineId) {
 
         ShoppingCartLine line = lineRepository.findById(shoppingCartLineId);
@@ -97,11 +113,17 @@ public class ShoppingCartLineService {
                 .qty(line.getQty())
                 .productTmplId(line.getProductTmplId())
                 .attrValues(line.getAttrValuesIds())
+                .version(line.getVersion())
                 .build();
     }
 
+    /**
+     * Returns the version of the resulting line, which is the line it was merged into
+     * when another line already held the new attribute set.
+     */
+    @RetryOnConflict
     @Transactional
-    public void updateLine(UpdateShoppingCartLineDTO req){
+    public long updateLine(UpdateShoppingCartLineDTO req, Long expectedVersion){
 
         ShoppingCartLine line = lineRepository.findById(req.id());
 
@@ -109,12 +131,38 @@ public class ShoppingCartLineService {
             throw new NotFoundException("Line Not Found");
         }
 
-        line.updateQty(req.qty(), req.attrValues());
+        EntityTags.checkVersion(expectedVersion, line.getVersion());
+
+        Optional<CatalogPrice> price = catalogPrice(line.getProductTmplId());
+
+        BigDecimal lineTotal = line.getPriceTotal();
+
+        ShoppingCartLine result = updateOrMerge(line, req.qty(), req.attrValues());
 
+        // A merge replaces the totals of both lines with the new total of the surviving one
+        ShoppingCartRepository.SubtotalChange subtotalChange = reprice(
+                result, price, result == line ? lineTotal : sum(result.getPriceTotal(), lineTotal)
+        );
+
+        lineRepository.flushLines();
+
+        UUID shoppingCartId = line.getShoppingCart().getId();
+
+        long version = touch(
+                shoppingCartId, result == line ? 0 : -1, CartChangedEvent.Type.LINE_UPDATED, result.getId(), subtotalChange
+        );
+
+        if (result != line) {
+            // Merged into another line: this one is gone
+            cartChanged.fire(new CartChangedEvent(shoppingCartId, version, CartChangedEvent.Type.LINE_DELETED, line.getId()));
+        }
+
+        return result.getVersion();
     }
 
+    @RetryOnConflict
     @Transactional
-    public void path(UUID shoppingCartLineId, Map<String, Object> updates) {
+    public long path(UUID shoppingCartLineId, Map<String, Object> updates, Long expectedVersion) {
 
         ShoppingCartLine line = lineRepository.findById(shoppingCartLineId);
 
@@ -122,53 +170,383 @@ public class ShoppingCartLineService {
             throw new NotFoundException("Line Not Found");
         }
 
+        EntityTags.checkVersion(expectedVersion, line.getVersion());
+
         if (updates.containsKey("qty")) {
             Number qty = (Number) updates.get("qty");
 
+            Optional<CatalogPrice> price = catalogPrice(line.getProductTmplId());
+
+            BigDecimal lineTotal = line.getPriceTotal();
+
             line.setQty(qty.shortValue());
+
+            ShoppingCartRepository.SubtotalChange subtotalChange = reprice(line, price, lineTotal);
+
+            lineRepository.flushLines();
+
+            touch(line.getShoppingCart().getId(), 0, CartChangedEvent.Type.LINE_UPDATED, line.getId(), subtotalChange);
         }
+
+        return line.getVersion();
     }
 
+    /**
+     * Removes the line, and the cart with it when no lines remain, in two statements and
+     * without loading the line or the cart. The decision uses the line count maintained on
+     * the cart row, which concurrent adds and deletes of the same cart see in commit order.
+     */
+    @RetryOnConflict
     @Transactional
-    public void deleteById(UUID shoppingCartLineId) {
+    public void deleteById(UUID shoppingCartLineId, Long expectedVersion) {
 
-        ShoppingCartLine line = lineRepository.findById(shoppingCartLineId);
+        Optional<ShoppingCartLineRepository.RemovedLine> removed = lineRepository.remove(shoppingCartLineId, expectedVersion);
 
-        if (line == null) {
-            throw new NotFoundException("Line Not Found");
+        if (removed.isEmpty()) {
+            // Only a failed delete pays for this lookup: either the line is gone or it moved on
+            long version = lineRepository.findVersion(shoppingCartLineId)
+                    .orElseThrow(() -> new NotFoundException("Line Not Found"));
+
+            EntityTags.checkVersion(expectedVersion, version);
+
+            throw new OptimisticLockException("ShoppingCartLine " + shoppingCartLineId + " changed");
         }
 
-        ShoppingCart cart = line.getShoppingCart();
+        UUID shoppingCartId = removed.get().shoppingCartId();
 
-        lineRepository.delete(line);
+        // Removing a line needs no pricing, its stored total just leaves the subtotal
+        ShoppingCartRepository.SubtotalChange subtotalChange = removed.get().priceTotal() == null
+                ? null
+                : new ShoppingCartRepository.SubtotalChange(removed.get().priceTotal().negate());
+
+        Optional<ShoppingCartRepository.Touch> touch = shoppingRepository.removeLine(shoppingCartId, subtotalChange);
+
+        if (touch.isEmpty()) {
+            cartChanged.fire(CartChangedEvent.deleted(shoppingCartId));
+        } else {
+            cartChanged.fire(new CartChangedEvent(
+                    shoppingCartId, touch.get().version(), CartChangedEvent.Type.LINE_DELETED, shoppingCartLineId
+            ));
+        }
+    }
+
+    /**
+     * Empties the user's cart: the cart and all of its lines go in one statement. With an
+     * expected version the cart is only cleared at that version.
+     */
+    @RetryOnConflict
+    @Transactional
+    public void clear(UUID shoppingCartId, Long expectedVersion) {
+
+        UUID userUUID = UUID.fromString(security.userId());
+
+        long lines = shoppingRepository.deleteWithLines(shoppingCartId, userUUID, expectedVersion);
+
+        if (lines < 0) {
+            // Only a failed delete pays for this lookup: either the cart is not the user's or it moved on
+            ShoppingCart shoppingCart = shoppingRepository.findById(shoppingCartId);
+
+            if (shoppingCart == null || !shoppingCart.getUserUUID().equals(userUUID)) {
+                throw new NotFoundException("ShoppingCart Not Found");
+            }
+
+            EntityTags.checkVersion(expectedVersion, shoppingCart.getVersion());
+
+            throw new OptimisticLockException("ShoppingCart " + shoppingCartId + " changed");
+        }
+
+        cartChanged.fire(CartChangedEvent.deleted(shoppingCartId));
+    }
+
+    /**
+     * Applies a list of add/update/delete operations to the user's cart for one restaurant.
+     * Every operation is checked first, then every product is validated with one catalog
+     * lookup; the operations then run in a single transaction so the inserts and updates go
+     * out as JDBC batches. With an expected version the batch only applies to that version
+     * of the cart: it is checked when the cart is read and again by the statement that
+     * bumps the cart version, so a mutation committed in between fails the batch with a 412.
+     */
+    public BatchShoppingCartLineResultDTO applyBatch(BatchShoppingCartLineDTO req, Long expectedVersion) {
+        return applyBatch(UUID.fromString(security.userId()), req, expectedVersion);
+    }
+
+    @RetryOnConflict
+    BatchShoppingCartLineResultDTO applyBatch(UUID userUUID, BatchShoppingCartLineDTO req, Long expectedVersion) {
+
+        // Before the lookup, which can't take a missing product id
+        req.operations().forEach(ShoppingCartLineService::validateOperation);
+
+        Set<Integer> productIds = req.operations().stream()
+                .filter(op -> op.type() == BatchShoppingCartLineDTO.Type.ADD)
+                .map(BatchShoppingCartLineDTO.Operation::productTmplId)
+                .collect(Collectors.toSet());
+
+        Map<Integer, ProductCandidateShoppingLineDTO> products = catalogCache.getCandidates(productIds);
+
+        for (BatchShoppingCartLineDTO.Operation op : req.operations()) {
+
+            if (op.type() == BatchShoppingCartLineDTO.Type.ADD) {
+
+                ProductCandidateShoppingLineDTO product = products.get(op.productTmplId());
+
+                if (product == null) {
+                    throw new NotFoundException("El producto con ID " + op.productTmplId() + " no existe en el catálogo.");
+                }
+
+                if (!req.restaurantTmplId().equals(product.restaurantTmplId())) {
+                    throw new BadRequestException("El producto con ID " + op.productTmplId() + " no pertenece a este restaurante.");
+                }
+
+                validateAttrValues(product, op.attrValues());
+            }
+        }
+
+        return QuarkusTransaction.requiringNew().call(() -> applyOperations(userUUID, req, expectedVersion));
+    }
 
-        cart.getLines().remove(line);
+    private BatchShoppingCartLineResultDTO applyOperations(
+            UUID userUUID,
+            BatchShoppingCartLineDTO req,
+            Long expectedVersion
+    ) {
+
+        ShoppingCart shoppingCart = shoppingRepository.findOrCreate(userUUID, req.restaurantTmplId());
+
+        EntityTags.checkVersion(expectedVersion, shoppingCart.getVersion());
+
+        Map<UUID, ShoppingCartLine> lines = lineRepository.getByShoppingCart(shoppingCart.getId()).stream()
+                .collect(Collectors.toMap(ShoppingCartLine::getId, Function.identity()));
+
+        int lineDelta = 0;
+
+        for (BatchShoppingCartLineDTO.Operation op : req.operations()) {
+
+            switch (op.type()) {
+                case ADD -> {
+                    // The upsert is native SQL, pending entity changes must reach the table first
+                    lineRepository.flushLines();
+
+                    ShoppingCartLineRepository.UpsertResult upsert = lineRepository.upsert(
+                            shoppingCart.getId(), op.productTmplId(), op.qty(), op.attrValues()
+                    ).orElseThrow(ShoppingCartLineService::qtyTooLarge);
+
+                    if (upsert.inserted()) {
+                        lines.put(upsert.id(), lineRepository.findById(upsert.id()));
+                        lineDelta++;
+                    } else {
+                        lineRepository.getEntityManager().refresh(lines.get(upsert.id()));
+                    }
+                }
+                case UPDATE -> {
+                    ShoppingCartLine line = cartLine(lines, op.lineId());
+
+                    if (updateOrMerge(line, op.qty(), op.attrValues()) != line) {
+                        lines.remove(op.lineId());
+                        lineDelta--;
+                    }
+                }
+                case DELETE -> {
+                    lineRepository.delete(cartLine(lines, op.lineId()));
+                    lines.remove(op.lineId());
+                    lineDelta--;
+                }
+            }
+        }
 
+        if (lines.isEmpty()) {
+            lineRepository.flushLines();
+            // Versioned delete: it fails when the cart moved past the version read above
+            shoppingRepository.delete(shoppingCart);
+            cartChanged.fire(CartChangedEvent.deleted(shoppingCart.getId()));
 
-        if (cart.getLines().isEmpty()) {
-            shoppingRepository.delete(cart);
+            return BatchShoppingCartLineResultDTO.builder()
+                    .lineCount(0)
+                    .build();
         }
 
+        lineRepository.flushLines();
+
+        // Stored totals are left for a full reprice on the next read
+        long version = shoppingRepository.touch(shoppingCart.getId(), lineDelta, null, expectedVersion).version();
+
+        cartChanged.fire(new CartChangedEvent(shoppingCart.getId(), version, CartChangedEvent.Type.LINES_CHANGED, null));
+
+        return BatchShoppingCartLineResultDTO.builder()
+                .shoppingCartId(shoppingCart.getId())
+                .version(version)
+                .lineCount(lines.size())
+                .build();
+    }
+
+    /**
+     * Bumps the cart version and announces the change, so cached cart views get evicted
+     * once the transaction commits and the change is written to the cart outbox.
+     */
+    private long touch(
+            UUID shoppingCartId,
+            int lineDelta,
+            CartChangedEvent.Type type,
+            UUID lineId,
+            ShoppingCartRepository.SubtotalChange subtotalChange
+    ) {
+
+        long version = shoppingRepository.touch(shoppingCartId, lineDelta, subtotalChange).version();
+
+        cartChanged.fire(new CartChangedEvent(shoppingCartId, version, type, lineId));
+
+        return version;
+    }
+
+    /**
+     * Price of the product for the stored line totals, read before the cart rows are
+     * locked. Empty when the price can't be read now or is only a last-known one; the
+     * write goes on and the cart is repriced in full on its next read.
+     */
+    private Optional<CatalogPrice> catalogPrice(Integer productTmplId) {
+
+        try {
+            ProductGateway.Prices prices = catalogCache.getPrices(Set.of(productTmplId));
+
+            if (prices.lastKnown()) {
+                return Optional.empty();
+            }
+
+            return prices.prices().stream()
+                    .findFirst()
+                    .map(product -> new CatalogPrice(product, CartPricingEngine.fingerprint(product)));
+
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores the new total of the line and returns the resulting subtotal change, or null
+     * when the line can't be priced or the total it replaces was never stored.
+     */
+    private ShoppingCartRepository.SubtotalChange reprice(
+            ShoppingCartLine line,
+            Optional<CatalogPrice> price,
+            BigDecimal replacedTotal
+    ) {
+
+        if (price.isEmpty()) {
+            line.setPriceTotal(null);
+            line.setPriceFingerprint(null);
+            return null;
+        }
+
+        BigDecimal total = lineTotal(price.get(), line.getId(), line.getQty(), line.getAttrValuesIds());
+
+        line.setPriceTotal(total);
+        line.setPriceFingerprint(price.get().fingerprint());
+
+        return subtotalChange(total, replacedTotal);
+    }
+
+    private BigDecimal lineTotal(CatalogPrice price, UUID lineId, Short qty, Set<Integer> attrValues) {
+
+        ShoppingCartView.Line line = new ShoppingCartView.Line(lineId, price.product().productTmplId(), qty, attrValues);
+
+        return pricingEngine.priceLine(line, price.product()).priceTotal();
+    }
+
+    private static ShoppingCartRepository.SubtotalChange subtotalChange(BigDecimal total, BigDecimal replacedTotal) {
+        return replacedTotal == null
+                ? null
+                : new ShoppingCartRepository.SubtotalChange(total.subtract(replacedTotal));
+    }
+
+    private static BigDecimal sum(BigDecimal a, BigDecimal b) {
+        return a == null || b == null ? null : a.add(b);
     }
 
     public ProductCandidateShoppingLineDTO findProduct(Integer id) {
-        try (Response response = productClient.getProductCandidateById(id)) {
-            return response.readEntity(ProductCandidateShoppingLineDTO.class);
+        return catalogCache.getCandidate(id);
+    }
+
+    /**
+     * Applies a new qty and attribute set to a line. When another line of the cart already
+     * holds the same product with that attribute set, the qty is added to it and this line
+     * is removed instead. Returns the line that holds the result.
+     */
+    private ShoppingCartLine updateOrMerge(ShoppingCartLine line, Short qty, Set<Integer> attrValues) {
+
+        String attrKey = ShoppingCartLine.attrKeyOf(attrValues);
+
+        if (!attrKey.equals(line.getAttrKey())) {
+            // Earlier batch operations reach the table here, not in the lookup's auto-flush
+            lineRepository.flushLines();
+        }
+
+        Optional<ShoppingCartLine> twin = attrKey.equals(line.getAttrKey())
+                ? Optional.empty()
+                : lineRepository.findByKey(line.getShoppingCart().getId(), line.getProductTmplId(), attrKey);
+
+        if (twin.isEmpty()) {
+            line.updateQty(qty, attrValues);
+            return line;
+        }
+
+        int merged = twin.get().getQty() + qty;
+
+        if (merged > ShoppingCartLine.MAX_QTY) {
+            throw qtyTooLarge();
+        }
+
+        twin.get().setQty((short) merged);
+        lineRepository.delete(line);
+
+        return twin.get();
+    }
+
+    private static void validateAttrValues(ProductCandidateShoppingLineDTO product, Set<Integer> attrValues) {
 
-        } catch (WebApplicationException e) {
+        if (attrValues != null && !attrValues.isEmpty()) {
+            Set<Integer> validIds = product.attrValues().stream()
+                    .map(ProductCandidateShoppingLineDTO.AttributeValueDTO::attrValueId)
+                    .collect(Collectors.toSet());
 
-            Response errorResponse = e.getResponse();
+            boolean allValid = validIds.containsAll(attrValues);
 
-            if (errorResponse.getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
-                throw new NotFoundException("El producto con ID " + id + " no existe en el catálogo.");
+            if (!allValid) {
+                throw new BadRequestException("Uno o más atributos seleccionados no pertenecen a este producto.");
             }
+        }
+    }
 
+    private static void validateOperation(BatchShoppingCartLineDTO.Operation op) {
 
-            throw new RuntimeException("El servicio de productos devolvió un error: " + errorResponse.getStatus());
-        } catch (ProcessingException e) {
+        boolean valid = switch (op.type()) {
+            case ADD -> op.productTmplId() != null && op.qty() != null;
+            case UPDATE -> op.lineId() != null && op.qty() != null;
+            case DELETE -> op.lineId() != null;
+        };
 
-            throw new RuntimeException("Error técnico de comunicación o formato de datos", e);
+        if (!valid) {
+            throw new BadRequestException("Operación " + op.type() + " incompleta.");
         }
     }
 
+    private static BadRequestException qtyTooLarge() {
+        return new BadRequestException("La cantidad de una línea no puede superar " + ShoppingCartLine.MAX_QTY + ".");
+    }
+
+    private record CatalogPrice(
+            ProductPriceDTO product,
+            // CartPricingEngine.fingerprint of the product
+            long fingerprint
+    ) {}
+
+    private static ShoppingCartLine cartLine(Map<UUID, ShoppingCartLine> lines, UUID lineId) {
+
+        ShoppingCartLine line = lines.get(lineId);
+
+        if (line == null) {
+            throw new NotFoundException("Line Not Found");
+        }
+
+        return line;
+    }
+
 }
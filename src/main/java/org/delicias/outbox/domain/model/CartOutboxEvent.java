@@ -0,0 +1,43 @@
+package org.delicias.outbox.domain.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Entity
+@Table(name = "shopping_cart_outbox")
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class CartOutboxEvent {
+
+    // Per cart, ids follow commit order: every writer holds the cart row lock when inserting
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "shopping_cart_uuid")
+    private UUID shoppingCartId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "event_type")
+    private CartChangedEvent.Type type;
+
+    // Null when the cart was deleted
+    @Column(name = "cart_version")
+    private Long cartVersion;
+
+    @Column(name = "line_uuid")
+    private UUID lineId;
+
+    @Column(name = "occurred_at")
+    private Instant occurredAt;
+
+    @Column(name = "published_at")
+    private Instant publishedAt;
+}
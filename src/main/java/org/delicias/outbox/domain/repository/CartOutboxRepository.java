@@ -0,0 +1,69 @@
+package org.delicias.outbox.domain.repository;
+
+import io.quarkus.hibernate.orm.panache.PanacheRepository;
+import io.quarkus.panache.common.Page;
+import io.quarkus.panache.common.Sort;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.delicias.outbox.domain.model.CartOutboxEvent;
+import org.delicias.telemetry.Instrumented;
+
+import java.time.Instant;
+import java.util.List;
+
+@ApplicationScoped
+public class CartOutboxRepository implements PanacheRepository<CartOutboxEvent> {
+
+    // Shared by every instance, so only one of them relays at a time and per-cart order holds
+    private static final long RELAY_LOCK_KEY = 0x5C_0B_0C_57L;
+
+    /**
+     * Takes the relay lock until the current transaction ends. Returns false when another
+     * instance holds it.
+     */
+    @Instrumented("delicias.repository")
+    public boolean tryRelayLock() {
+        return (Boolean) getEntityManager()
+                .createNativeQuery("SELECT pg_try_advisory_xact_lock(:key)")
+                .setParameter("key", RELAY_LOCK_KEY)
+                .getSingleResult();
+    }
+
+    @Instrumented("delicias.repository")
+    public List<CartOutboxEvent> nextBatch(int size) {
+        return find("publishedAt is null", Sort.ascending("id"))
+                .page(Page.ofSize(size))
+                .list();
+    }
+
+    @Instrumented("delicias.repository")
+    public int markPublished(List<Long> ids, Instant publishedAt) {
+        return update("publishedAt = ?1 where id in ?2", publishedAt, ids);
+    }
+
+    /**
+     * Unpublished events and how long the oldest of them has been waiting.
+     */
+    @Instrumented("delicias.repository")
+    public Backlog backlog() {
+
+        Object[] row = (Object[]) getEntityManager()
+                .createNativeQuery("""
+                    SELECT COUNT(*), COALESCE(EXTRACT(EPOCH FROM (now() - MIN(occurred_at))) * 1000, 0)
+                    FROM shopping_cart_outbox
+                    WHERE published_at IS NULL
+                    """)
+                .getSingleResult();
+
+        return new Backlog(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+    }
+
+    @Instrumented("delicias.repository")
+    public long purgePublished(Instant before) {
+        return delete("publishedAt < ?1", before);
+    }
+
+    public record Backlog(
+            long pending,
+            long oldestAgeMillis
+    ) {}
+}
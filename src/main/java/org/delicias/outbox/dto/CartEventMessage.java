@@ -0,0 +1,34 @@
+package org.delicias.outbox.dto;
+
+import lombok.Builder;
+import org.delicias.outbox.domain.model.CartOutboxEvent;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Cart change as published to downstream services. {@code id} grows with every event of
+ * a cart, so consumers can drop the duplicates an at-least-once relay may send.
+ */
+@Builder
+public record CartEventMessage(
+        Long id,
+        UUID shoppingCartId,
+        CartChangedEvent.Type type,
+        Long version,
+        UUID lineId,
+        Instant occurredAt
+) {
+
+    public static CartEventMessage of(CartOutboxEvent event) {
+        return CartEventMessage.builder()
+                .id(event.getId())
+                .shoppingCartId(event.getShoppingCartId())
+                .type(event.getType())
+                .version(event.getCartVersion())
+                .lineId(event.getLineId())
+                .occurredAt(event.getOccurredAt())
+                .build();
+    }
+}
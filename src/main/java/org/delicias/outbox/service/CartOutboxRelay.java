@@ -0,0 +1,163 @@
+package org.delicias.outbox.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.logging.Log;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import org.delicias.outbox.domain.model.CartOutboxEvent;
+import org.delicias.outbox.domain.repository.CartOutboxRepository;
+import org.delicias.outbox.dto.CartEventMessage;
+import org.delicias.outbox.sink.CartEventSink;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes outbox events to the configured sink, oldest first. A batch is marked as
+ * published in the transaction that sent it, so a crash between the two sends it again
+ * (at least once). The relay holds a database advisory lock while it works, so with many
+ * instances only one publishes and the per-cart order is kept.
+ */
+@ApplicationScoped
+public class CartOutboxRelay {
+
+    @Inject
+    CartOutboxRepository outboxRepository;
+
+    @Inject
+    Instance<CartEventSink> sinks;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "delicias.outbox.relay.batch-size", defaultValue = "200")
+    int batchSize;
+
+    @ConfigProperty(name = "delicias.outbox.relay.max-batches", defaultValue = "10")
+    int maxBatches;
+
+    @ConfigProperty(name = "delicias.outbox.retention", defaultValue = "P1D")
+    Duration retention;
+
+    private CartEventSink sink;
+
+    private Timer lag;
+    private Counter published;
+    private Counter failures;
+
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong oldestAgeMillis = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        sink = sinks.get();
+
+        lag = Timer.builder("delicias.outbox.lag")
+                .description("Time from the cart change to its publication")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        published = registry.counter("delicias.outbox.published");
+        failures = registry.counter("delicias.outbox.failures");
+
+        registry.gauge("delicias.outbox.pending", pending);
+        registry.gauge("delicias.outbox.oldest.age.millis", oldestAgeMillis);
+    }
+
+    @Scheduled(
+            identity = "cart-outbox-relay",
+            every = "${delicias.outbox.relay.every:1s}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP
+    )
+    void scheduledRelay() {
+        try {
+            relay();
+        } catch (RuntimeException e) {
+            failures.increment();
+            Log.warnf(e, "Cart outbox relay failed, the batch is sent again on the next run");
+        }
+    }
+
+    @Scheduled(
+            identity = "cart-outbox-purge",
+            every = "${delicias.outbox.purge.every:1h}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP
+    )
+    void purge() {
+        QuarkusTransaction.requiringNew().call(
+                () -> outboxRepository.purgePublished(Instant.now().minus(retention))
+        );
+    }
+
+    /**
+     * Sends up to {@code max-batches} batches, stopping at the first short batch or when
+     * another instance is relaying. Returns the number of events published.
+     */
+    public int relay() {
+
+        int total = 0;
+
+        try {
+            for (int i = 0; i < maxBatches; i++) {
+
+                int sent = QuarkusTransaction.requiringNew().call(this::relayBatch);
+
+                if (sent < 0) {
+                    break;
+                }
+
+                total += sent;
+
+                if (sent < batchSize) {
+                    break;
+                }
+            }
+        } finally {
+            refreshBacklog();
+        }
+
+        return total;
+    }
+
+    // Returns -1 when another instance holds the relay lock
+    private int relayBatch() {
+
+        if (!outboxRepository.tryRelayLock()) {
+            return -1;
+        }
+
+        List<CartOutboxEvent> batch = outboxRepository.nextBatch(batchSize);
+
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        sink.publish(batch.stream().map(CartEventMessage::of).toList());
+
+        Instant now = Instant.now();
+
+        outboxRepository.markPublished(batch.stream().map(CartOutboxEvent::getId).toList(), now);
+
+        batch.forEach(event -> lag.record(Duration.between(event.getOccurredAt(), now)));
+        published.increment(batch.size());
+
+        return batch.size();
+    }
+
+    private void refreshBacklog() {
+
+        CartOutboxRepository.Backlog backlog = QuarkusTransaction.requiringNew().call(outboxRepository::backlog);
+
+        pending.set(backlog.pending());
+        oldestAgeMillis.set(backlog.oldestAgeMillis());
+    }
+}
@@ -0,0 +1,34 @@
+package org.delicias.outbox.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import org.delicias.outbox.domain.model.CartOutboxEvent;
+import org.delicias.outbox.domain.repository.CartOutboxRepository;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+
+import java.time.Instant;
+
+@ApplicationScoped
+public class CartOutboxWriter {
+
+    @Inject
+    CartOutboxRepository outboxRepository;
+
+    /**
+     * Writes the change into the outbox within the transaction that made it, so the event
+     * exists if and only if the change commits.
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    void onCartChanged(@Observes CartChangedEvent event) {
+
+        outboxRepository.persist(CartOutboxEvent.builder()
+                .shoppingCartId(event.shoppingCartId())
+                .type(event.type())
+                .cartVersion(event.isDeleted() ? null : event.version())
+                .lineId(event.lineId())
+                .occurredAt(Instant.now())
+                .build());
+    }
+}
@@ -0,0 +1,16 @@
+package org.delicias.outbox.sink;
+
+import org.delicias.outbox.dto.CartEventMessage;
+
+import java.util.List;
+
+/**
+ * Destination of the cart events relayed from the outbox, selected with
+ * {@code delicias.outbox.sink.type}. A batch is either fully accepted or the call throws;
+ * on failure the relay sends the same batch again later, so a sink may see an event more
+ * than once but always in id order per cart.
+ */
+public interface CartEventSink {
+
+    void publish(List<CartEventMessage> events);
+}
@@ -0,0 +1,50 @@
+package org.delicias.outbox.sink;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.arc.lookup.LookupIfProperty;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.delicias.outbox.dto.CartEventMessage;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends one JSON document per event to a local file, for tests and local development.
+ */
+@ApplicationScoped
+@LookupIfProperty(name = "delicias.outbox.sink.type", stringValue = "file")
+public class FileCartEventSink implements CartEventSink {
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "delicias.outbox.sink.file.path", defaultValue = "/tmp/delicias-cart-events.jsonl")
+    Path path;
+
+    @Override
+    public synchronized void publish(List<CartEventMessage> events) {
+
+        List<String> lines = new ArrayList<>(events.size());
+
+        try {
+            for (CartEventMessage event : events) {
+                lines.add(objectMapper.writeValueAsString(event));
+            }
+
+            Files.write(path, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cart event is not serializable", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write cart events to " + path, e);
+        }
+    }
+}
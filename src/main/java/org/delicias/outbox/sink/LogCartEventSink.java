@@ -0,0 +1,18 @@
+package org.delicias.outbox.sink;
+
+import io.quarkus.arc.lookup.LookupIfProperty;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.delicias.outbox.dto.CartEventMessage;
+
+import java.util.List;
+
+@ApplicationScoped
+@LookupIfProperty(name = "delicias.outbox.sink.type", stringValue = "log", lookupIfMissing = true)
+public class LogCartEventSink implements CartEventSink {
+
+    @Override
+    public void publish(List<CartEventMessage> events) {
+        events.forEach(event -> Log.infof("Cart event %s", event));
+    }
+}
@@ -0,0 +1,17 @@
+package org.delicias.persistence;
+
+import jakarta.interceptor.InterceptorBinding;
+
+import java.lang.annotation.*;
+
+/**
+ * Runs the annotated method in a read-only transaction: the Hibernate session loads
+ * entities read-only, never flushes, and Postgres is told the transaction is
+ * {@code READ ONLY}. When a transaction is already active the method simply joins it.
+ */
+@Inherited
+@InterceptorBinding
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReadOnlyTransaction {
+}
@@ -0,0 +1,44 @@
+package org.delicias.persistence;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.interceptor.AroundInvoke;
+import jakarta.interceptor.Interceptor;
+import jakarta.interceptor.InvocationContext;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+
+import java.sql.Statement;
+
+@ReadOnlyTransaction
+@Interceptor
+@Priority(Interceptor.Priority.PLATFORM_BEFORE + 200)
+public class ReadOnlyTransactionInterceptor {
+
+    @Inject
+    Session session;
+
+    @AroundInvoke
+    Object readOnly(InvocationContext context) throws Exception {
+
+        if (QuarkusTransaction.isActive()) {
+            return context.proceed();
+        }
+
+        return QuarkusTransaction.requiringNew().call(() -> {
+
+            session.setDefaultReadOnly(true);
+            session.setHibernateFlushMode(FlushMode.MANUAL);
+
+            // Must be the first statement of the transaction
+            session.doWork(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET TRANSACTION READ ONLY");
+                }
+            });
+
+            return context.proceed();
+        });
+    }
+}
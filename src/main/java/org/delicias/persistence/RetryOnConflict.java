@@ -0,0 +1,19 @@
+package org.delicias.persistence;
+
+import jakarta.interceptor.InterceptorBinding;
+
+import java.lang.annotation.*;
+
+/**
+ * Re-runs the annotated method when it fails on an optimistic lock conflict. The
+ * interceptor sits outside {@code @Transactional}, so every attempt gets a fresh
+ * transaction and persistence context. Attempts are bounded by
+ * {@code delicias.persistence.conflict-retry.max-attempts}; once exhausted the caller
+ * gets a 409.
+ */
+@Inherited
+@InterceptorBinding
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RetryOnConflict {
+}
@@ -0,0 +1,67 @@
+package org.delicias.persistence;
+
+import jakarta.annotation.Priority;
+import jakarta.interceptor.AroundInvoke;
+import jakarta.interceptor.Interceptor;
+import jakarta.interceptor.InvocationContext;
+import jakarta.persistence.OptimisticLockException;
+import org.delicias.exception.ShoppingBusinessException;
+import org.delicias.exception.ShoppingErrorCode;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.StaleStateException;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+@RetryOnConflict
+@Interceptor
+// Runs before the transaction interceptor (PLATFORM_BEFORE + 200), so each attempt commits or rolls back on its own
+@Priority(Interceptor.Priority.PLATFORM_BEFORE + 100)
+public class RetryOnConflictInterceptor {
+
+    @ConfigProperty(name = "delicias.persistence.conflict-retry.max-attempts", defaultValue = "3")
+    int maxAttempts;
+
+    @ConfigProperty(name = "delicias.persistence.conflict-retry.backoff", defaultValue = "PT0.02S")
+    Duration backoff;
+
+    @AroundInvoke
+    Object retry(InvocationContext context) throws Exception {
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return context.proceed();
+
+            } catch (Exception e) {
+
+                if (!isConflict(e)) {
+                    throw e;
+                }
+
+                if (attempt >= maxAttempts) {
+                    throw new ShoppingBusinessException(
+                            "El carrito fue modificado por otra solicitud, intenta de nuevo.",
+                            ShoppingErrorCode.SHOPPING_CONCURRENT_MODIFICATION,
+                            409
+                    );
+                }
+
+                // Exponential backoff with jitter, so colliding requests do not retry in lockstep
+                long delay = backoff.toMillis() << (attempt - 1);
+                Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            }
+        }
+    }
+
+    // Conflicts found at commit arrive wrapped in the transaction manager's exceptions
+    private static boolean isConflict(Throwable e) {
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,8 @@
+package org.delicias.restaurant.dto;
+
+import java.util.Set;
+
+public record InvalidateRestaurantsDTO(
+        // Empty or missing means every restaurant
+        Set<Integer> restaurantTmplIds
+) { }
@@ -0,0 +1,21 @@
+package org.delicias.restaurant.dto;
+
+import lombok.Builder;
+
+@Builder
+public record RestaurantCacheStatsDTO(
+        Stats resumes,
+        Stats positions
+) {
+
+    @Builder
+    public record Stats(
+            long size,
+            long hits,
+            long misses,
+            // Failed loads and background refreshes; stale entries are kept on failure
+            long loadFailures,
+            long evictions,
+            double hitRate
+    ) {}
+}
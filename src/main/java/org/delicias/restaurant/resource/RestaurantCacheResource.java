@@ -0,0 +1,39 @@
+package org.delicias.restaurant.resource;
+
+import io.quarkus.security.Authenticated;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.delicias.restaurant.dto.InvalidateRestaurantsDTO;
+import org.delicias.restaurant.service.RestaurantCache;
+
+@Authenticated
+@Path("/api/shoppingcart/restaurant-cache")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class RestaurantCacheResource {
+
+    @Inject
+    RestaurantCache restaurantCache;
+
+    @GET
+    @Path("/stats")
+    public Response stats() {
+        return Response.ok(
+                restaurantCache.stats()
+        ).build();
+    }
+
+    // Called by the restaurants service when a name, logo or position changes
+    // Only other services may drop the caches: every call invalidates them on all instances
+    @POST
+    @Path("/invalidate")
+    @RolesAllowed("${delicias.security.service-role}")
+    public Response invalidate(InvalidateRestaurantsDTO req) {
+
+        restaurantCache.invalidate(req != null ? req.restaurantTmplIds() : null);
+        return Response.noContent().build();
+    }
+}
@@ -0,0 +1,190 @@
+package org.delicias.restaurant.service;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.delicias.common.dto.restaurant.RestaurantLatLngDTO;
+import org.delicias.common.dto.restaurant.RestaurantResumeDTO;
+import org.delicias.exception.ShoppingBusinessException;
+import org.delicias.exception.ShoppingErrorCode;
+import org.delicias.gateway.RestaurantGateway;
+import org.delicias.restaurant.dto.RestaurantCacheStatsDTO;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * In-process cache of restaurant names, logos and positions, keyed by restaurantTmplId.
+ * Missing ids are loaded with one bulk call. Entries older than {@code refresh-after} are
+ * still served while a reload runs in the background; when the reload fails the old entry
+ * is kept, so the restaurants service is only on the request path for ids never seen or
+ * older than {@code expire-after}.
+ */
+@ApplicationScoped
+public class RestaurantCache {
+
+    public static final String INVALIDATION_CHANNEL = "restaurant_invalidated";
+
+    @Inject
+    RestaurantGateway restaurantGateway;
+
+    @Inject
+    ManagedExecutor executor;
+
+    @Inject
+    EntityManager entityManager;
+
+    @ConfigProperty(name = "delicias.restaurant.cache.max-size", defaultValue = "5000")
+    long maxSize;
+
+    @ConfigProperty(name = "delicias.restaurant.cache.refresh-after", defaultValue = "PT10M")
+    Duration refreshAfter;
+
+    @ConfigProperty(name = "delicias.restaurant.cache.expire-after", defaultValue = "PT24H")
+    Duration expireAfter;
+
+    private LoadingCache<Integer, RestaurantResumeDTO> resumes;
+
+    private LoadingCache<Integer, RestaurantLatLngDTO> positions;
+
+    @PostConstruct
+    void init() {
+        resumes = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .refreshAfterWrite(refreshAfter)
+                .expireAfterWrite(expireAfter)
+                .executor(executor)
+                .recordStats()
+                .build(new CacheLoader<>() {
+
+                    @Override
+                    public RestaurantResumeDTO load(Integer id) {
+                        return loadResumes(Set.of(id)).get(id);
+                    }
+
+                    @Override
+                    public Map<Integer, RestaurantResumeDTO> loadAll(Set<? extends Integer> missingIds) {
+                        return loadResumes(missingIds);
+                    }
+                });
+
+        positions = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .refreshAfterWrite(refreshAfter)
+                .expireAfterWrite(expireAfter)
+                .executor(executor)
+                .recordStats()
+                .build(this::loadPosition);
+    }
+
+    /**
+     * Restaurants unknown to the restaurants service are left out of the result.
+     */
+    public Map<Integer, RestaurantResumeDTO> getResumes(Set<Integer> restaurantTmplIds) {
+
+        if (restaurantTmplIds.isEmpty()) {
+            return Map.of();
+        }
+
+        return resumes.getAll(restaurantTmplIds);
+    }
+
+    public RestaurantLatLngDTO getLatLng(Integer restaurantTmplId) {
+        return positions.get(restaurantTmplId);
+    }
+
+    /**
+     * Invalidates the restaurants, or all of them when no id is given, on this instance
+     * and, through Postgres NOTIFY, on the others.
+     */
+    public void invalidate(Set<Integer> restaurantTmplIds) {
+
+        String ids = restaurantTmplIds == null ? "" : restaurantTmplIds.stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+
+        // NOTIFY payloads are limited to 8000 bytes; longer id lists invalidate every restaurant
+        String payload = ids.length() > 7000 ? "" : ids;
+
+        QuarkusTransaction.requiringNew().run(() -> entityManager
+                .createNativeQuery("SELECT pg_notify(:channel, :payload)")
+                .setParameter("channel", INVALIDATION_CHANNEL)
+                .setParameter("payload", payload)
+                .getSingleResult());
+
+        invalidateLocal(payload.isEmpty() ? null : restaurantTmplIds);
+    }
+
+    // Invalidation received from the NOTIFY channel: comma separated ids, empty for all
+    public void onInvalidation(String payload) {
+        invalidateLocal(payload.isEmpty() ? null : Arrays.stream(payload.split(","))
+                .map(Integer::valueOf)
+                .collect(Collectors.toSet()));
+    }
+
+    private void invalidateLocal(Set<Integer> restaurantTmplIds) {
+
+        if (restaurantTmplIds == null || restaurantTmplIds.isEmpty()) {
+            resumes.invalidateAll();
+            positions.invalidateAll();
+        } else {
+            resumes.invalidateAll(restaurantTmplIds);
+            positions.invalidateAll(restaurantTmplIds);
+        }
+    }
+
+    public RestaurantCacheStatsDTO stats() {
+        return RestaurantCacheStatsDTO.builder()
+                .resumes(toStats(resumes))
+                .positions(toStats(positions))
+                .build();
+    }
+
+    private Map<Integer, RestaurantResumeDTO> loadResumes(Set<? extends Integer> ids) {
+        return restaurantGateway.getRestaurantsByIds(Set.copyOf(ids))
+                .stream()
+                .collect(Collectors.toMap(RestaurantResumeDTO::id, Function.identity(), (a, b) -> a));
+    }
+
+    // Positions the restaurants service cannot resolve are reported and never cached
+    private RestaurantLatLngDTO loadPosition(Integer restaurantTmplId) {
+
+        RestaurantLatLngDTO restaurant = restaurantGateway.getLatLng(restaurantTmplId);
+
+        if(restaurant.latitude().equals(Double.NaN) || restaurant.longitude().equals(Double.NaN)) {
+            throw new ShoppingBusinessException(
+                    "Can't get restaurant position",
+                    ShoppingErrorCode.SHOPPING_BAD_RESTAURANT_LAT_LNG,
+                    400
+            );
+        }
+
+        return restaurant;
+    }
+
+    private static RestaurantCacheStatsDTO.Stats toStats(LoadingCache<?, ?> cache) {
+
+        CacheStats stats = cache.stats();
+
+        return RestaurantCacheStatsDTO.Stats.builder()
+                .size(cache.estimatedSize())
+                .hits(stats.hitCount())
+                .misses(stats.missCount())
+                .loadFailures(stats.loadFailureCount())
+                .evictions(stats.evictionCount())
+                .hitRate(stats.hitRate())
+                .build();
+    }
+}
@@ -0,0 +1,36 @@
+package org.delicias.shoppingcart.domain.model;
+
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+/**
+ * Shipping cost computed for a (cart, address, restaurant) triple. The tariff
+ * version lets a quote be recomputed when the shipping rates change.
+ */
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ShippingQuote {
+
+    private Integer userAddressId;
+
+    private Integer restaurantTmplId;
+
+    private Integer distance;
+
+    private BigDecimal amount;
+
+    private long tariffVersion;
+
+    private long quotedAt;
+
+    public boolean matches(Integer userAddressId, Integer restaurantTmplId, long tariffVersion) {
+        return Objects.equals(this.userAddressId, userAddressId)
+                && Objects.equals(this.restaurantTmplId, restaurantTmplId)
+                && this.tariffVersion == tariffVersion;
+    }
+}
@@ -4,12 +4,13 @@ import jakarta.persistence.*;
 import lombok.*;
 import org.delicias.common.adjusment.OrderAdjustment;
 import org.delicias.line.domain.model.ShoppingCartLine;
-import org.hibernate.annotations.Formula;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.type.SqlTypes;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 
@@ -39,9 +40,30 @@ public class ShoppingCart {
     @Column(columnDefinition = "jsonb")
     private List<OrderAdjustment> adjustments;
 
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "shipping_quote", columnDefinition = "jsonb")
+    private ShippingQuote shippingQuote;
+
+
+    @Builder.Default
+    @Column(name = "line_count")
+    private Integer lineCount = 0;
+
+    // Also bumped by ShoppingCartRepository.touch for line mutations
+    @Version
+    @Builder.Default
+    @Column(name = "version")
+    private Long version = 0L;
 
-    @Formula("(SELECT COUNT(*) FROM shopping_cart_line s WHERE s.shopping_cart_uuid = id)")
-    private Integer lineCount;
+    // Sum of the line totals, null when the cart needs a full reprice.
+    // Maintained by the repository statements only, never written from the entity
+    @Column(name = "subtotal", insertable = false, updatable = false)
+    private BigDecimal subtotal;
+
+    // Sum of the adjustment amounts
+    @Builder.Default
+    @Column(name = "charges_total")
+    private BigDecimal chargesTotal = BigDecimal.ZERO;
 
     @OrderBy("id asc")
     @OneToMany(mappedBy = "shoppingCart",  cascade = CascadeType.ALL, orphanRemoval = true)
@@ -53,5 +75,25 @@ public class ShoppingCart {
         }
 
         this.adjustments.add(adjustment);
+        this.chargesTotal = sumCharges();
+    }
+
+    /**
+     * Replaces the adjustment with the same key, or appends it when there is none.
+     */
+    public void upsertAdjustment(OrderAdjustment adjustment) {
+        if(this.adjustments == null) {
+            this.adjustments = new ArrayList<>();
+        }
+
+        this.adjustments.removeIf(it -> Objects.equals(it.getKey(), adjustment.getKey()));
+        this.adjustments.add(adjustment);
+        this.chargesTotal = sumCharges();
+    }
+
+    private BigDecimal sumCharges() {
+        return this.adjustments.stream()
+                .map(it -> BigDecimal.valueOf(it.getAmount()))
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
     }
 }
@@ -0,0 +1,52 @@
+package org.delicias.shoppingcart.domain.model;
+
+import org.delicias.common.adjusment.OrderAdjustment;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Immutable snapshot of a cart header and its lines, loaded with a single query
+ * for the read endpoints.
+ */
+public record ShoppingCartView(
+        UUID id,
+        UUID userUUID,
+        Integer restaurantTmplId,
+        Integer userAddressId,
+        List<OrderAdjustment> adjustments,
+        ShippingQuote shippingQuote,
+        Integer lineCount,
+        Long version,
+        // Sum of the stored line totals, null when the cart needs a full reprice
+        BigDecimal subtotal,
+        BigDecimal chargesTotal,
+        List<Line> lines
+) {
+
+    public ShoppingCartView {
+        adjustments = adjustments != null ? List.copyOf(adjustments) : List.of();
+        lines = List.copyOf(lines);
+    }
+
+    public record Line(
+            UUID id,
+            Integer productTmplId,
+            Short qty,
+            Set<Integer> attrValuesIds,
+            BigDecimal priceTotal,
+            // Fingerprint of the prices priceTotal was computed from
+            Long priceFingerprint
+    ) {
+
+        public Line {
+            attrValuesIds = attrValuesIds != null ? Set.copyOf(attrValuesIds) : null;
+        }
+
+        public Line(UUID id, Integer productTmplId, Short qty, Set<Integer> attrValuesIds) {
+            this(id, productTmplId, qty, attrValuesIds, null, null);
+        }
+    }
+}
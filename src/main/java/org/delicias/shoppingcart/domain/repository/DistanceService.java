@@ -0,0 +1,39 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.locationtech.jts.geom.Coordinate;
+
+@ApplicationScoped
+public class DistanceService {
+
+    public enum Engine { GEODESIC, POSTGIS }
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    @ConfigProperty(name = "delicias.shoppingcart.distance.engine", defaultValue = "geodesic")
+    Engine engine;
+
+    /**
+     * Distance in meters rounded up, as {@code CEIL(ST_Distance(geography, geography))}.
+     * The geodesic engine computes it in the JVM, the postgis engine asks the database.
+     */
+    public Integer calculate(
+            Double addressLng, Double addressLat,
+            Double restaurantLng, Double restaurantLat
+    ) {
+
+        if (engine == Engine.POSTGIS) {
+            return cartRepository.getDistance(addressLng, addressLat, restaurantLng, restaurantLat);
+        }
+
+        double meters = GeodesicDistance.meters(
+                new Coordinate(addressLng, addressLat),
+                new Coordinate(restaurantLng, restaurantLat)
+        );
+
+        return (int) Math.ceil(meters);
+    }
+}
@@ -0,0 +1,97 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Ellipsoidal distance on WGS84 (Vincenty inverse formula), the same model PostGIS
+ * uses for {@code ST_Distance} on geography values. Coordinates follow the JTS
+ * convention: {@code x} is longitude and {@code y} is latitude, in degrees.
+ */
+public final class GeodesicDistance {
+
+    private static final double A = 6378137.0;
+    private static final double F = 1 / 298.257223563;
+    private static final double B = (1 - F) * A;
+
+    private static final double MEAN_RADIUS = 6371008.8;
+
+    private static final int MAX_ITERATIONS = 200;
+    private static final double CONVERGENCE = 1e-12;
+
+    private GeodesicDistance() {}
+
+    public static double meters(Coordinate from, Coordinate to) {
+
+        double lat1 = Math.toRadians(from.y);
+        double lat2 = Math.toRadians(to.y);
+        double l = Math.toRadians(to.x - from.x);
+
+        double u1 = Math.atan((1 - F) * Math.tan(lat1));
+        double u2 = Math.atan((1 - F) * Math.tan(lat2));
+        double sinU1 = Math.sin(u1), cosU1 = Math.cos(u1);
+        double sinU2 = Math.sin(u2), cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        double sinSigma, cosSigma, sigma, cos2Alpha, cos2SigmaM;
+
+        int iteration = 0;
+
+        while (true) {
+
+            double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+
+            sinSigma = Math.sqrt(
+                    (cosU2 * sinLambda) * (cosU2 * sinLambda)
+                            + (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda) * (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda)
+            );
+
+            if (sinSigma == 0) {
+                return 0; // coincident points
+            }
+
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cos2Alpha = 1 - sinAlpha * sinAlpha;
+            cos2SigmaM = cos2Alpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cos2Alpha : 0; // equatorial line
+
+            double c = F / 16 * cos2Alpha * (4 + F * (4 - 3 * cos2Alpha));
+
+            double previous = lambda;
+            lambda = l + (1 - c) * F * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+            if (Math.abs(lambda - previous) < CONVERGENCE) {
+                break;
+            }
+
+            if (++iteration >= MAX_ITERATIONS) {
+                // Nearly antipodal points do not converge, a sphere is accurate enough there
+                return haversine(from, to);
+            }
+        }
+
+        double uSq = cos2Alpha * (A * A - B * B) / (B * B);
+        double bigA = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+        double bigB = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+
+        double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4
+                * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                - bigB / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+
+        return B * bigA * (sigma - deltaSigma);
+    }
+
+    public static double haversine(Coordinate from, Coordinate to) {
+
+        double dLat = Math.toRadians(to.y - from.y);
+        double dLng = Math.toRadians(to.x - from.x);
+
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(from.y)) * Math.cos(Math.toRadians(to.y))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+
+        return 2 * MEAN_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+}
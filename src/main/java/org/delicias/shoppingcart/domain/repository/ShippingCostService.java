@@ -1,30 +1,70 @@
 package org.delicias.shoppingcart.domain.repository;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 @ApplicationScoped
 public class ShippingCostService {
 
-    public double calculate(Integer distance) {
+    @Inject
+    ShippingTariffConfig config;
+
+    private TariffTable defaultTariff;
+
+    private Map<Integer, TariffTable> restaurantTariffs;
 
+    private long version;
 
-        double minimumShippingCost = 30.0;
+    @PostConstruct
+    void init() {
 
-        long _1km = 1000L; // 1 km = 1000 meters
-        Long _2km = 2000L; // 2 km = 2000 meters
+        defaultTariff = toTable(config.tariff());
 
-        if(distance > _2km) {
+        Map<Integer, TariffTable> tables = new HashMap<>();
+        long fingerprint = defaultTariff.fingerprint();
 
-            long km = _2km;
+        // Sorted so the version does not depend on map iteration order
+        for (Map.Entry<String, ShippingTariffConfig.Tariff> entry : new TreeMap<>(config.restaurants()).entrySet()) {
 
-            while (km < distance) {
+            TariffTable table = toTable(entry.getValue());
 
-                minimumShippingCost += 5d;
-                km += _1km;
-            }
+            tables.put(Integer.valueOf(entry.getKey()), table);
+            fingerprint = 31 * fingerprint + entry.getKey().hashCode() * 17L + table.fingerprint();
         }
 
-        return minimumShippingCost;
+        restaurantTariffs = Map.copyOf(tables);
+        version = fingerprint;
+    }
+
+    public BigDecimal calculate(Integer restaurantTmplId, Integer distance) {
+
+        TariffTable tariff = restaurantTariffs.getOrDefault(restaurantTmplId, defaultTariff);
+
+        return tariff.fee(Math.max(0, distance));
+    }
+
+    /**
+     * Changes whenever the configured tariffs change, so stored shipping quotes are recomputed.
+     */
+    public long version() {
+        return version;
+    }
 
+    private static TariffTable toTable(ShippingTariffConfig.Tariff tariff) {
+        return TariffTable.of(
+                tariff.baseFee(),
+                tariff.includedMeters(),
+                tariff.stepMeters(),
+                tariff.stepFee(),
+                tariff.tiers().stream()
+                        .map(tier -> new TariffTable.Tier(tier.fromMeters(), tier.stepFee()))
+                        .toList()
+        );
     }
 }
@@ -0,0 +1,46 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import io.smallrye.config.ConfigMapping;
+import io.smallrye.config.WithDefault;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+@ConfigMapping(prefix = "delicias.shipping")
+public interface ShippingTariffConfig {
+
+    Tariff tariff();
+
+    /**
+     * Tariffs for specific restaurants, keyed by restaurantTmplId.
+     */
+    Map<String, Tariff> restaurants();
+
+    interface Tariff {
+
+        @WithDefault("30.00")
+        BigDecimal baseFee();
+
+        @WithDefault("2000")
+        int includedMeters();
+
+        @WithDefault("1000")
+        int stepMeters();
+
+        @WithDefault("5.00")
+        BigDecimal stepFee();
+
+        /**
+         * Steps starting at or beyond {@code from-meters} cost {@code step-fee} instead.
+         */
+        List<Tier> tiers();
+    }
+
+    interface Tier {
+
+        int fromMeters();
+
+        BigDecimal stepFee();
+    }
+}
@@ -3,26 +3,318 @@ package org.delicias.shoppingcart.domain.repository;
 import io.quarkus.hibernate.orm.panache.PanacheRepositoryBase;
 import io.quarkus.panache.common.Sort;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.Query;
+import org.delicias.common.adjusment.OrderAdjustment;
+import org.delicias.shoppingcart.domain.model.ShippingQuote;
 import org.delicias.shoppingcart.domain.model.ShoppingCart;
+import org.delicias.shoppingcart.domain.model.ShoppingCartView;
+import org.delicias.telemetry.Instrumented;
 
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.*;
 
 @ApplicationScoped
 public class ShoppingCartRepository implements PanacheRepositoryBase<ShoppingCart, UUID> {
 
+    // SET clause of every line mutation, bound by bindTouch
+    private static final String TOUCH_SET = """
+            line_count = line_count + :lineDelta, version = version + 1, last_modified_at = now(),
+                subtotal = CASE
+                    WHEN :priced AND (subtotal IS NOT NULL OR line_count = 0) THEN COALESCE(subtotal, 0) + :subtotalDelta
+                END""";
+
+    @Instrumented("delicias.repository")
     public List<ShoppingCart> findByUser(UUID userUUID) {
         return list("userUUID", Sort.ascending("id"), userUUID);
     }
 
 
+    @Instrumented("delicias.repository")
     public Optional<ShoppingCart> findByUserAndRestaurant(UUID userUUID, Integer restaurantTmplId) {
         return find("userUUID = ?1 AND restaurantTmplId = ?2", userUUID, restaurantTmplId)
                 .firstResultOptional();
     }
 
 
+    /**
+     * Returns the user's cart for the restaurant, creating it when missing. The insert
+     * ignores conflicts on (user_uuid, restaurant_tmpl_id), so two devices adding their
+     * first item at the same time end up sharing one cart.
+     */
+    @Instrumented("delicias.repository")
+    public ShoppingCart findOrCreate(UUID userUUID, Integer restaurantTmplId) {
+
+        Optional<ShoppingCart> existing = findByUserAndRestaurant(userUUID, restaurantTmplId);
+
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+
+        getEntityManager().createNativeQuery("""
+                INSERT INTO shopping_cart (id, user_uuid, restaurant_tmpl_id)
+                VALUES (uuid_generate_v4(), :userUUID, :restaurantTmplId)
+                ON CONFLICT (user_uuid, restaurant_tmpl_id) DO NOTHING
+                """)
+                .setParameter("userUUID", userUUID)
+                .setParameter("restaurantTmplId", restaurantTmplId)
+                .executeUpdate();
+
+        return findByUserAndRestaurant(userUUID, restaurantTmplId).orElseThrow();
+    }
+
+    /**
+     * Loads the cart header and every line with one statement (cart LEFT JOIN lines).
+     */
+    @SuppressWarnings("unchecked")
+    @Instrumented("delicias.repository")
+    public Optional<ShoppingCartView> findViewById(UUID shoppingCartId) {
+
+        List<Object[]> rows = getEntityManager().createQuery("""
+                SELECT c.id, c.userUUID, c.restaurantTmplId, c.userAddressId, c.adjustments, c.shippingQuote, c.lineCount, c.version,
+                       c.subtotal, c.chargesTotal,
+                       l.id, l.productTmplId, l.qty, l.attrValuesIds, l.priceTotal, l.priceFingerprint
+                FROM ShoppingCart c
+                LEFT JOIN ShoppingCartLine l ON l.shoppingCart.id = c.id
+                WHERE c.id = :id
+                ORDER BY l.id
+                """, Object[].class)
+                .setParameter("id", shoppingCartId)
+                .getResultList();
+
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+
+        List<ShoppingCartView.Line> lines = new ArrayList<>(rows.size());
+
+        for (Object[] row : rows) {
+            if (row[10] != null) {
+                lines.add(new ShoppingCartView.Line(
+                        (UUID) row[10],
+                        (Integer) row[11],
+                        (Short) row[12],
+                        toIntegerSet(row[13]),
+                        (BigDecimal) row[14],
+                        (Long) row[15]
+                ));
+            }
+        }
+
+        Object[] header = rows.get(0);
+
+        return Optional.of(new ShoppingCartView(
+                (UUID) header[0],
+                (UUID) header[1],
+                (Integer) header[2],
+                (Integer) header[3],
+                (List<OrderAdjustment>) header[4],
+                (ShippingQuote) header[5],
+                (Integer) header[6],
+                (Long) header[7],
+                (BigDecimal) header[8],
+                (BigDecimal) header[9],
+                lines
+        ));
+    }
+
+    /**
+     * Records a cart mutation: adjusts the line count and bumps the cart version atomically.
+     * The update locks the cart row until commit, so concurrent mutations of one cart see
+     * each other's line counts. Throws {@link OptimisticLockException} when the cart no
+     * longer exists, e.g. because its last line was removed concurrently.
+     */
+    @Instrumented("delicias.repository")
+    public Touch touch(UUID shoppingCartId, int lineDelta) {
+        return touch(shoppingCartId, lineDelta, null);
+    }
+
+    /**
+     * As {@link #touch(UUID, int)}, also moving the stored subtotal by the change in line
+     * totals, so it stays the sum of the stored line totals. An empty cart starts from its
+     * first change; a cart without a stored subtotal, or a mutation without a change, leaves
+     * it null for a full reprice. Whether the line totals still match the current prices is
+     * checked on read, by their fingerprints.
+     */
+    @Instrumented("delicias.repository")
+    public Touch touch(UUID shoppingCartId, int lineDelta, SubtotalChange subtotalChange) {
+        return touch(shoppingCartId, lineDelta, subtotalChange, null);
+    }
+
+    /**
+     * As {@link #touch(UUID, int, SubtotalChange)}, only when the cart is still at the
+     * expected version if there is one. The version is compared under the row lock, so a
+     * mutation committed since the caller read the cart makes this one fail instead of
+     * going through on top of it.
+     */
+    @Instrumented("delicias.repository")
+    public Touch touch(UUID shoppingCartId, int lineDelta, SubtotalChange subtotalChange, Long expectedVersion) {
+
+        List<?> rows = bindTouch(getEntityManager().createNativeQuery("""
+                UPDATE shopping_cart
+                SET %s
+                WHERE id = :id AND (:expectedVersion < 0 OR version = :expectedVersion)
+                RETURNING version, line_count
+                """.formatted(TOUCH_SET)), lineDelta, subtotalChange)
+                .setParameter("id", shoppingCartId)
+                .setParameter("expectedVersion", expectedVersion != null ? expectedVersion : -1L)
+                .getResultList();
+
+        if (rows.isEmpty()) {
+            throw new OptimisticLockException("ShoppingCart " + shoppingCartId + " was removed or changed");
+        }
+
+        Object[] row = (Object[]) rows.get(0);
+
+        return new Touch(((Number) row[0]).longValue(), ((Number) row[1]).intValue());
+    }
+
+    /**
+     * Records the removal of one line in one statement: the cart is deleted when that was
+     * its last line, otherwise touched as {@link #touch(UUID, int, SubtotalChange)} does.
+     * The decision reads the materialized line count under the cart row lock, so it holds
+     * against concurrent adds. Returns empty when the cart was deleted.
+     */
+    @Instrumented("delicias.repository")
+    public Optional<Touch> removeLine(UUID shoppingCartId, SubtotalChange subtotalChange) {
+
+        List<?> rows = bindTouch(getEntityManager().createNativeQuery("""
+                WITH emptied AS (
+                    DELETE FROM shopping_cart
+                    WHERE id = :id AND line_count <= 1
+                    RETURNING id
+                ), touched AS (
+                    UPDATE shopping_cart
+                    SET %s
+                    WHERE id = :id AND NOT EXISTS (SELECT 1 FROM emptied)
+                    RETURNING version, line_count
+                )
+                SELECT version, line_count, false FROM touched
+                UNION ALL
+                SELECT 0, 0, true FROM emptied
+                """.formatted(TOUCH_SET)), -1, subtotalChange)
+                .setParameter("id", shoppingCartId)
+                .getResultList();
+
+        if (rows.isEmpty()) {
+            throw new OptimisticLockException("ShoppingCart " + shoppingCartId + " was removed");
+        }
+
+        Object[] row = (Object[]) rows.get(0);
+
+        if ((Boolean) row[2]) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new Touch(((Number) row[0]).longValue(), ((Number) row[1]).intValue()));
+    }
+
+    /**
+     * Deletes the user's cart with all of its lines in one statement, optionally only at
+     * the expected version. Returns the lines deleted, or -1 when no cart matched.
+     */
+    @Instrumented("delicias.repository")
+    public long deleteWithLines(UUID shoppingCartId, UUID userUUID, Long expectedVersion) {
+
+        List<?> rows = getEntityManager().createNativeQuery("""
+                WITH cart AS (
+                    DELETE FROM shopping_cart
+                    WHERE id = :id AND user_uuid = :userUUID AND (:expectedVersion < 0 OR version = :expectedVersion)
+                    RETURNING id
+                ), lines AS (
+                    DELETE FROM shopping_cart_line l
+                    USING cart c
+                    WHERE l.shopping_cart_uuid = c.id
+                    RETURNING l.id
+                )
+                SELECT (SELECT COUNT(*) FROM lines) FROM cart
+                """)
+                .setParameter("id", shoppingCartId)
+                .setParameter("userUUID", userUUID)
+                .setParameter("expectedVersion", expectedVersion != null ? expectedVersion : -1L)
+                .getResultList();
+
+        return rows.isEmpty() ? -1 : ((Number) rows.get(0)).longValue();
+    }
+
+    private static Query bindTouch(Query query, int lineDelta, SubtotalChange subtotalChange) {
+        return query
+                .setParameter("lineDelta", lineDelta)
+                .setParameter("priced", subtotalChange != null)
+                .setParameter("subtotalDelta", subtotalChange != null ? subtotalChange.delta() : BigDecimal.ZERO);
+    }
+
+    /**
+     * Deletes up to {@code limit} carts idle since before {@code cutoff}, with their lines,
+     * in one statement. Carts are taken in (last_modified_at, id) order after the cursor,
+     * so each chunk starts where the previous one ended instead of walking the index over
+     * the rows already deleted. Carts locked by a running mutation are skipped.
+     */
+    @Instrumented("delicias.repository")
+    public Reaped deleteIdle(Instant cutoff, ReaperCursor after, int limit) {
+
+        List<?> rows = getEntityManager().createNativeQuery("""
+                WITH idle AS (
+                    SELECT id, last_modified_at
+                    FROM shopping_cart
+                    WHERE last_modified_at < :cutoff
+                      AND (last_modified_at, id) > (:afterModifiedAt, :afterId)
+                    ORDER BY last_modified_at, id
+                    LIMIT :limit
+                    FOR UPDATE SKIP LOCKED
+                ), deleted_lines AS (
+                    DELETE FROM shopping_cart_line l
+                    USING idle i
+                    WHERE l.shopping_cart_uuid = i.id
+                    RETURNING l.id
+                ), deleted_carts AS (
+                    DELETE FROM shopping_cart c
+                    USING idle i
+                    WHERE c.id = i.id
+                    RETURNING c.id, c.last_modified_at
+                )
+                SELECT c.id, c.last_modified_at, (SELECT COUNT(*) FROM deleted_lines)
+                FROM deleted_carts c
+                ORDER BY c.last_modified_at, c.id
+                """)
+                .setParameter("cutoff", cutoff)
+                .setParameter("afterModifiedAt", after.lastModifiedAt())
+                .setParameter("afterId", after.id())
+                .setParameter("limit", limit)
+                .getResultList();
+
+        if (rows.isEmpty()) {
+            return new Reaped(List.of(), 0, after);
+        }
+
+        List<UUID> cartIds = new ArrayList<>(rows.size());
+
+        for (Object row : rows) {
+            cartIds.add((UUID) ((Object[]) row)[0]);
+        }
+
+        Object[] last = (Object[]) rows.get(rows.size() - 1);
+
+        return new Reaped(
+                cartIds,
+                ((Number) last[2]).longValue(),
+                new ReaperCursor(toInstant(last[1]), (UUID) last[0])
+        );
+    }
+
+    @Instrumented("delicias.repository")
+    public Optional<Long> findVersion(UUID shoppingCartId) {
+        return getEntityManager()
+                .createQuery("SELECT c.version FROM ShoppingCart c WHERE c.id = :id", Long.class)
+                .setParameter("id", shoppingCartId)
+                .getResultStream()
+                .findFirst();
+    }
+
+    @Instrumented("delicias.repository")
     public Integer getDistance(
             Double addressLng, Double addressLat,
             Double restaurantLng, Double restaurantLat
@@ -30,8 +322,8 @@ public class ShoppingCartRepository implements PanacheRepositoryBase<ShoppingCar
 
         String sql = """
         SELECT CEIL(ST_Distance(
-            ST_SetSRID(ST_MakePoint(:addressLng, :addressLat), 4326), 
-            ST_SetSRID(ST_MakePoint(:restaurantLng, :restaurantLat), 4326) 
+            ST_SetSRID(ST_MakePoint(:addressLng, :addressLat), 4326)::geography,
+            ST_SetSRID(ST_MakePoint(:restaurantLng, :restaurantLat), 4326)::geography
         ))
         """;
 
@@ -44,4 +336,147 @@ public class ShoppingCartRepository implements PanacheRepositoryBase<ShoppingCar
 
         return result != null ? ((Number) result).intValue() : null;
     }
+
+    private static Instant toInstant(Object value) {
+
+        if (value instanceof Instant instant) {
+            return instant;
+        }
+
+        if (value instanceof OffsetDateTime dateTime) {
+            return dateTime.toInstant();
+        }
+
+        return ((Timestamp) value).toInstant();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<Integer> toIntegerSet(Object value) {
+
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof Integer[] array) {
+            return new HashSet<>(Arrays.asList(array));
+        }
+
+        return new HashSet<>((Collection<Integer>) value);
+    }
+
+    /**
+     * Stores the totals of a fully priced cart, unless the cart changed since the snapshot
+     * they were computed from. The cart version is not bumped: the cart content is the same.
+     * <p>
+     * Rows are locked in the writers' order, lines first and the cart last, and never waited
+     * for: a row held by a running mutation means the totals are about to be outdated, so
+     * nothing is stored and the next read prices the cart again.
+     */
+    @Instrumented("delicias.repository")
+    public boolean storeTotals(
+            UUID shoppingCartId,
+            long expectedVersion,
+            BigDecimal subtotal,
+            Map<UUID, LineTotal> lineTotals
+    ) {
+
+        if (!lineTotals.isEmpty()) {
+
+            Number locked = (Number) getEntityManager().createNativeQuery("""
+                    SELECT COUNT(*) FROM (
+                        SELECT id FROM shopping_cart_line
+                        WHERE shopping_cart_uuid = :id AND id IN (:lineIds)
+                        FOR UPDATE SKIP LOCKED
+                    ) locked
+                    """)
+                    .setParameter("id", shoppingCartId)
+                    .setParameter("lineIds", lineTotals.keySet())
+                    .getSingleResult();
+
+            if (locked.intValue() < lineTotals.size()) {
+                return false;
+            }
+        }
+
+        List<?> cart = getEntityManager().createNativeQuery("""
+                SELECT id FROM shopping_cart
+                WHERE id = :id AND version = :expectedVersion
+                FOR UPDATE SKIP LOCKED
+                """)
+                .setParameter("id", shoppingCartId)
+                .setParameter("expectedVersion", expectedVersion)
+                .getResultList();
+
+        if (cart.isEmpty()) {
+            return false;
+        }
+
+        getEntityManager().createNativeQuery("UPDATE shopping_cart SET subtotal = :subtotal WHERE id = :id")
+                .setParameter("subtotal", subtotal)
+                .setParameter("id", shoppingCartId)
+                .executeUpdate();
+
+        if (lineTotals.isEmpty()) {
+            return true;
+        }
+
+        // One statement for every line: UPDATE ... FROM (VALUES (id, total, fingerprint), ...)
+        StringBuilder values = new StringBuilder();
+        List<Object> parameters = new ArrayList<>(lineTotals.size() * 3);
+
+        lineTotals.forEach((lineId, total) -> {
+            values.append(values.isEmpty() ? "" : ", ")
+                    .append("(CAST(?").append(parameters.size() + 1).append(" AS uuid), CAST(?")
+                    .append(parameters.size() + 2).append(" AS numeric), CAST(?")
+                    .append(parameters.size() + 3).append(" AS bigint))");
+            parameters.add(lineId);
+            parameters.add(total.total());
+            parameters.add(total.fingerprint());
+        });
+
+        Query query = getEntityManager().createNativeQuery(
+                "UPDATE shopping_cart_line l SET price_total = t.total, price_fingerprint = t.fingerprint FROM (VALUES "
+                        + values + ") AS t(id, total, fingerprint) WHERE l.id = t.id AND l.shopping_cart_uuid = ?"
+                        + (parameters.size() + 1)
+        );
+
+        for (int i = 0; i < parameters.size(); i++) {
+            query.setParameter(i + 1, parameters.get(i));
+        }
+
+        query.setParameter(parameters.size() + 1, shoppingCartId).executeUpdate();
+
+        return true;
+    }
+
+    public record SubtotalChange(
+            // New line totals minus the ones they replace
+            BigDecimal delta
+    ) {}
+
+    public record LineTotal(
+            BigDecimal total,
+            // CartPricingEngine.fingerprint of the prices the total was computed from
+            long fingerprint
+    ) {}
+
+    public record ReaperCursor(
+            Instant lastModifiedAt,
+            UUID id
+    ) {
+
+        public static final ReaperCursor START = new ReaperCursor(Instant.EPOCH, new UUID(0, 0));
+    }
+
+    public record Reaped(
+            List<UUID> cartIds,
+            long lines,
+            // Where the next chunk starts
+            ReaperCursor cursor
+    ) {}
+
+    public record Touch(
+            long version,
+            int lineCount
+    ) {}
 }
@@ -0,0 +1,134 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Immutable shipping tariff. Distance beyond the included meters is charged per started
+ * step; each step costs the fee of the tier its start falls in. The fee of the first
+ * {@value #PRECOMPUTED_BUCKETS} step counts is precomputed, longer distances use the
+ * closed form, so pricing is O(1) either way.
+ */
+public final class TariffTable {
+
+    public record Tier(int fromMeters, BigDecimal stepFee) {}
+
+    static final int PRECOMPUTED_BUCKETS = 256;
+
+    private final BigDecimal baseFee;
+    private final int includedMeters;
+    private final int stepMeters;
+
+    // Tier i applies from step tierStartStep[i] (1-based), tierStartFee[i] is the fee before that step
+    private final int[] tierStartStep;
+    private final BigDecimal[] tierRate;
+    private final BigDecimal[] tierStartFee;
+
+    private final BigDecimal[] buckets;
+
+    private TariffTable(BigDecimal baseFee, int includedMeters, int stepMeters, TreeMap<Integer, BigDecimal> rates) {
+
+        this.baseFee = baseFee;
+        this.includedMeters = includedMeters;
+        this.stepMeters = stepMeters;
+
+        this.tierStartStep = new int[rates.size()];
+        this.tierRate = new BigDecimal[rates.size()];
+        this.tierStartFee = new BigDecimal[rates.size()];
+
+        int i = 0;
+        BigDecimal accumulated = baseFee;
+
+        for (Map.Entry<Integer, BigDecimal> rate : rates.entrySet()) {
+
+            if (i > 0) {
+                accumulated = accumulated.add(
+                        tierRate[i - 1].multiply(BigDecimal.valueOf(rate.getKey() - tierStartStep[i - 1]))
+                );
+            }
+
+            tierStartStep[i] = rate.getKey();
+            tierRate[i] = rate.getValue();
+            tierStartFee[i] = accumulated;
+            i++;
+        }
+
+        this.buckets = new BigDecimal[PRECOMPUTED_BUCKETS];
+
+        for (int steps = 0; steps < PRECOMPUTED_BUCKETS; steps++) {
+            buckets[steps] = closedForm(steps);
+        }
+    }
+
+    public static TariffTable of(
+            BigDecimal baseFee,
+            int includedMeters,
+            int stepMeters,
+            BigDecimal stepFee,
+            List<Tier> tiers
+    ) {
+
+        if (stepMeters <= 0) {
+            throw new IllegalArgumentException("stepMeters must be positive");
+        }
+
+        TreeMap<Integer, BigDecimal> rates = new TreeMap<>();
+        rates.put(1, stepFee);
+
+        for (Tier tier : tiers) {
+            int firstStep = tier.fromMeters() <= includedMeters
+                    ? 1
+                    : ceilDiv(tier.fromMeters() - includedMeters, stepMeters) + 1;
+
+            rates.put(firstStep, tier.stepFee());
+        }
+
+        return new TariffTable(baseFee, includedMeters, stepMeters, rates);
+    }
+
+    /**
+     * Number of charged steps for a distance in meters.
+     */
+    public int bucket(int distance) {
+        return distance <= includedMeters ? 0 : ceilDiv(distance - includedMeters, stepMeters);
+    }
+
+    public BigDecimal fee(int distance) {
+
+        int steps = bucket(distance);
+
+        return steps < PRECOMPUTED_BUCKETS ? buckets[steps] : closedForm(steps);
+    }
+
+    public long fingerprint() {
+
+        long hash = Objects.hash(baseFee.stripTrailingZeros(), includedMeters, stepMeters);
+
+        for (int i = 0; i < tierStartStep.length; i++) {
+            hash = 31 * hash + Objects.hash(tierStartStep[i], tierRate[i].stripTrailingZeros());
+        }
+
+        return hash;
+    }
+
+    private BigDecimal closedForm(int steps) {
+
+        if (steps == 0) {
+            return baseFee;
+        }
+
+        int tier = tierStartStep.length - 1;
+
+        while (tierStartStep[tier] > steps) {
+            tier--;
+        }
+
+        return tierStartFee[tier].add(
+                tierRate[tier].multiply(BigDecimal.valueOf(steps - tierStartStep[tier] + 1L))
+        );
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
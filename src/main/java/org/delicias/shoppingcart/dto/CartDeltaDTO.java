@@ -0,0 +1,29 @@
+package org.delicias.shoppingcart.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Change pushed on the cart stream. The first message is a SNAPSHOT with every line;
+ * each DELTA carries only the lines added or changed and the ids of the removed ones,
+ * together with the new totals and charges. DELETED ends the stream.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Builder
+public record CartDeltaDTO(
+        UUID id,
+        Kind kind,
+        Long version,
+        List<ShoppingCartDTO.ShoppingLine> changedLines,
+        List<UUID> removedLineIds,
+        BigDecimal subtotal,
+        BigDecimal total,
+        List<ShoppingCartDTO.ShoppingCharge> charges
+) {
+
+    public enum Kind { SNAPSHOT, DELTA, DELETED }
+}
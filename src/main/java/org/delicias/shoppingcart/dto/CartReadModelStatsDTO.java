@@ -0,0 +1,19 @@
+package org.delicias.shoppingcart.dto;
+
+import lombok.Builder;
+
+@Builder
+public record CartReadModelStatsDTO(
+        long size,
+        long hits,
+        long misses,
+        double hitRate,
+        long staleCatalogMisses,
+        long invalidations,
+        long rejectedPuts,
+        long avgServedAgeMillis,
+        long maxServedAgeMillis,
+        long notModified,
+        long savedBytes,
+        long savedComputeMillis
+) {}
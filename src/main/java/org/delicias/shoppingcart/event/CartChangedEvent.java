@@ -0,0 +1,35 @@
+package org.delicias.shoppingcart.event;
+
+import java.util.UUID;
+
+/**
+ * Fired inside the transaction that modified a cart. {@code version} is the cart version
+ * written by that transaction, or {@link #DELETED} when the cart was removed.
+ * {@code lineId} is the line the change is about, if any.
+ */
+public record CartChangedEvent(
+        UUID shoppingCartId,
+        long version,
+        Type type,
+        UUID lineId
+) {
+
+    public static final long DELETED = Long.MAX_VALUE;
+
+    public enum Type {
+        LINE_ADDED,
+        LINE_UPDATED,
+        LINE_DELETED,
+        LINES_CHANGED,
+        ADDRESS_CHANGED,
+        CART_DELETED
+    }
+
+    public static CartChangedEvent deleted(UUID shoppingCartId) {
+        return new CartChangedEvent(shoppingCartId, DELETED, Type.CART_DELETED, null);
+    }
+
+    public boolean isDeleted() {
+        return version == DELETED;
+    }
+}
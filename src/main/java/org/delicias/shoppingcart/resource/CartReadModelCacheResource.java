@@ -0,0 +1,25 @@
+package org.delicias.shoppingcart.resource;
+
+import io.quarkus.security.Authenticated;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.delicias.shoppingcart.service.CartReadModelCache;
+
+@Authenticated
+@Path("/api/shoppingcart/read-model-cache")
+@Produces(MediaType.APPLICATION_JSON)
+public class CartReadModelCacheResource {
+
+    @Inject
+    CartReadModelCache readModelCache;
+
+    @GET
+    @Path("/stats")
+    public Response stats() {
+        return Response.ok(
+                readModelCache.stats()
+        ).build();
+    }
+}
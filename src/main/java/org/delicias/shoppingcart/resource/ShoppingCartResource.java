@@ -1,11 +1,21 @@
 package org.delicias.shoppingcart.resource;
 
 import io.quarkus.security.Authenticated;
+import io.smallrye.common.annotation.NonBlocking;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import org.delicias.http.Conditional;
+import org.delicias.http.EntityTags;
+import org.delicias.line.service.ShoppingCartLineService;
+import org.delicias.shoppingcart.dto.CartDeltaDTO;
+import org.delicias.shoppingcart.service.CartStreamService;
 import org.delicias.shoppingcart.service.ShoppingCartService;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 
 import java.util.UUID;
 
@@ -19,23 +29,52 @@ public class ShoppingCartResource {
     @Inject
     ShoppingCartService service;
 
+    @Inject
+    CartStreamService streamService;
+
+    @Inject
+    ShoppingCartLineService lineService;
+
     @GET
-    public Response cartsAvailable() {
-        return Response.ok(
-                service.cartsAvailable()
-        ).build();
+    public Response cartsAvailable(
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
+    ) {
+        return service.cartsAvailable(ifNoneMatch).toResponse();
     }
 
+    // Runs on the event loop; only read-model cache misses are moved to a worker thread
     @GET
+    @NonBlocking
     @Path("/{shoppingCartId}")
-    public Response findById(
-            @PathParam("shoppingCartId") UUID shoppingCartId
+    public Uni<Response> findById(
+            @PathParam("shoppingCartId") UUID shoppingCartId,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
     ) {
-        return Response.ok(
-                service.findById(shoppingCartId)
-        ).build();
+        // The tag also serves as If-Match for batch line updates
+        return service.findByIdAsync(shoppingCartId, ifNoneMatch).map(Conditional::toResponse);
+    }
+
+    // Clears the cart: the cart and every line go in one statement. If-Match takes the cart version
+    @DELETE
+    @Path("/{shoppingCartId}/lines")
+    public Response clear(
+            @PathParam("shoppingCartId") UUID shoppingCartId,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch
+    ) {
+        lineService.clear(shoppingCartId, EntityTags.expectedVersion(ifMatch));
+        return Response.noContent().build();
     }
 
+    // Server-sent events: a snapshot of the cart, then one delta per committed change
+    @GET
+    @Path("/{shoppingCartId}/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<CartDeltaDTO> stream(
+            @PathParam("shoppingCartId") UUID shoppingCartId
+    ) {
+        return streamService.stream(shoppingCartId);
+    }
 
     // TODO For Core Client
     @GET
@@ -0,0 +1,109 @@
+package org.delicias.shoppingcart.service;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.operators.multi.processors.BroadcastProcessor;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.interceptor.Interceptor;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Committed cart changes, one broadcast channel per cart that has live subscribers.
+ * Changes come from this instance's transactions, or from Postgres NOTIFY when
+ * {@code delicias.shoppingcart.stream.listen-notify.enabled} is set (see
+ * {@link PgCartChangeListener}), so every instance sees the writes of all of them.
+ */
+@ApplicationScoped
+public class CartChangeNotifier {
+
+    @ConfigProperty(name = "delicias.shoppingcart.stream.listen-notify.enabled", defaultValue = "false")
+    boolean listenNotifyEnabled;
+
+    private final Map<UUID, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Changes of one cart from the moment of subscription. The stream completes after the
+     * cart is deleted.
+     */
+    public Multi<CartChangedEvent> changes(UUID shoppingCartId) {
+
+        return Multi.createFrom().deferred(() -> {
+
+            Channel channel = channels.compute(shoppingCartId, (id, current) -> {
+                Channel result = current != null ? current : new Channel(BroadcastProcessor.create());
+                result.subscribers++;
+                return result;
+            });
+
+            return channel.processor()
+                    .onTermination().invoke(() -> release(shoppingCartId, channel));
+        });
+    }
+
+    public void publish(CartChangedEvent event) {
+
+        Channel channel = channels.get(event.shoppingCartId());
+
+        if (channel == null) {
+            return;
+        }
+
+        // Transactions of the same cart may commit on different threads; the processor needs serial signals
+        synchronized (channel) {
+
+            channel.processor().onNext(event);
+
+            if (event.isDeleted()) {
+                channels.remove(event.shoppingCartId(), channel);
+                channel.processor().onComplete();
+            }
+        }
+    }
+
+    public int subscribedCarts() {
+        return channels.size();
+    }
+
+    // After the read-model cache observer, so a pushed snapshot never comes from the evicted entry
+    void onCartChanged(
+            @Observes(during = TransactionPhase.AFTER_SUCCESS)
+            @Priority(Interceptor.Priority.APPLICATION + 1000)
+            CartChangedEvent event
+    ) {
+        if (!listenNotifyEnabled) {
+            publish(event);
+        }
+    }
+
+    private void release(UUID shoppingCartId, Channel channel) {
+        channels.computeIfPresent(shoppingCartId, (id, current) -> {
+            if (current != channel) {
+                return current;
+            }
+            return --current.subscribers == 0 ? null : current;
+        });
+    }
+
+    private static final class Channel {
+
+        private final BroadcastProcessor<CartChangedEvent> processor;
+
+        // Guarded by the map's per-key compute
+        private int subscribers;
+
+        Channel(BroadcastProcessor<CartChangedEvent> processor) {
+            this.processor = processor;
+        }
+
+        BroadcastProcessor<CartChangedEvent> processor() {
+            return processor;
+        }
+    }
+}
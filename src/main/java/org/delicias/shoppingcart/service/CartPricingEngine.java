@@ -0,0 +1,330 @@
+package org.delicias.shoppingcart.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.delicias.common.dto.product.ProductPriceDTO;
+import org.delicias.shoppingcart.domain.model.ShoppingCartView;
+import org.delicias.shoppingcart.dto.ShoppingCartDTO;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Prices cart lines against the product catalog. Each product is indexed once per call
+ * (attrValueId to value position), so a line is priced by visiting only its selected
+ * values, in catalog order, instead of scanning every attribute value twice.
+ */
+@ApplicationScoped
+public class CartPricingEngine {
+
+    public PricedLines price(List<ShoppingCartView.Line> linesAdded, Map<Integer, ProductPriceDTO> productsMap) {
+
+        BigDecimal subtotal = BigDecimal.ZERO;
+
+        List<ShoppingCartDTO.ShoppingLine> lines = new ArrayList<>(linesAdded.size());
+        Map<Integer, ProductIndex> indexes = new HashMap<>();
+        BitSet selected = new BitSet();
+
+        for (ShoppingCartView.Line line : linesAdded) {
+
+            ProductPriceDTO product = productsMap.get(line.productTmplId());
+
+            if (product == null) {
+                continue;
+            }
+
+            ProductIndex index = indexes.computeIfAbsent(product.productTmplId(), id -> ProductIndex.of(product));
+
+            ShoppingCartDTO.ShoppingLine priced = priceLine(line, product, index, selected);
+
+            lines.add(priced);
+            subtotal = subtotal.add(priced.priceTotal());
+        }
+
+        return new PricedLines(lines, subtotal);
+    }
+
+    /**
+     * Builds the lines from the totals stored with the cart: only names and attributes come
+     * from the catalog, no amount is recomputed. Returns empty when a line has no stored
+     * total, its product is missing, or its total was priced from other prices than the
+     * current ones (see {@link #fingerprint}), in which case the cart needs a full
+     * {@link #price}.
+     */
+    public Optional<PricedLines> describe(
+            List<ShoppingCartView.Line> linesAdded,
+            Map<Integer, ProductPriceDTO> productsMap,
+            BigDecimal subtotal
+    ) {
+
+        List<ShoppingCartDTO.ShoppingLine> lines = new ArrayList<>(linesAdded.size());
+        Map<Integer, ProductIndex> indexes = new HashMap<>();
+        Map<Integer, Long> fingerprints = new HashMap<>();
+        BitSet selected = new BitSet();
+
+        for (ShoppingCartView.Line line : linesAdded) {
+
+            ProductPriceDTO product = productsMap.get(line.productTmplId());
+
+            if (product == null || line.priceTotal() == null || line.priceFingerprint() == null) {
+                return Optional.empty();
+            }
+
+            long current = fingerprints.computeIfAbsent(product.productTmplId(), id -> fingerprint(product));
+
+            if (line.priceFingerprint() != current) {
+                return Optional.empty();
+            }
+
+            ProductIndex index = indexes.computeIfAbsent(product.productTmplId(), id -> ProductIndex.of(product));
+
+            lines.add(priceLine(line, product, index, selected, line.priceTotal()));
+        }
+
+        return Optional.of(new PricedLines(lines, subtotal));
+    }
+
+    /**
+     * Stable hash of everything a line total depends on: the list price and the extra
+     * price of every attribute value, scales included. Stored with each line total, so a
+     * total priced from other prices is never shown next to the current ones.
+     */
+    public static long fingerprint(ProductPriceDTO product) {
+
+        StringBuilder prices = new StringBuilder().append(product.listPrice());
+
+        for (ProductPriceDTO.AttributeDTO attribute : product.attributes()) {
+            prices.append('|');
+            for (ProductPriceDTO.AttributeValueDTO value : attribute.values()) {
+                prices.append(value.attrValueId()).append('=').append(value.extraPrice()).append(',');
+            }
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(prices.toString().getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public ShoppingCartDTO.ShoppingLine priceLine(ShoppingCartView.Line line, ProductPriceDTO product) {
+        return priceLine(line, product, ProductIndex.of(product), new BitSet());
+    }
+
+    private ShoppingCartDTO.ShoppingLine priceLine(
+            ShoppingCartView.Line line,
+            ProductPriceDTO product,
+            ProductIndex index,
+            BitSet selected
+    ) {
+        return priceLine(line, product, index, selected, null);
+    }
+
+    // With a stored total the extra prices are not added up again
+    private ShoppingCartDTO.ShoppingLine priceLine(
+            ShoppingCartView.Line line,
+            ProductPriceDTO product,
+            ProductIndex index,
+            BitSet selected,
+            BigDecimal storedTotal
+    ) {
+
+        selected.clear();
+
+        if (line.attrValuesIds() != null) {
+            for (Integer attrValueId : line.attrValuesIds()) {
+                if (attrValueId != null) {
+                    index.select(attrValueId, selected);
+                }
+            }
+        }
+
+        BigDecimal extraPrice = BigDecimal.ZERO;
+        Set<ShoppingCartDTO.AttrAddedItem> attrsAdded = new LinkedHashSet<>();
+
+        StringBuilder names = new StringBuilder();
+        int currentAttr = -1;
+
+        // Positions are attribute-major, so the selected values of one attribute are contiguous
+        for (int pos = selected.nextSetBit(0); pos >= 0; pos = selected.nextSetBit(pos + 1)) {
+
+            int attr = index.valueAttr[pos];
+
+            if (attr != currentAttr) {
+                addAttr(attrsAdded, index, currentAttr, names);
+                names.setLength(0);
+                currentAttr = attr;
+            } else {
+                names.append(", ");
+            }
+
+            names.append(index.valueName[pos]);
+
+            if (storedTotal == null) {
+                extraPrice = extraPrice.add(index.valueExtra[pos]);
+            }
+        }
+
+        addAttr(attrsAdded, index, currentAttr, names);
+
+        BigDecimal lineTotal = storedTotal;
+
+        if (lineTotal == null) {
+            BigDecimal qty = BigDecimal.valueOf(line.qty());
+            BigDecimal basePrice = product.listPrice() != null ? product.listPrice() : BigDecimal.ZERO;
+            lineTotal = basePrice.multiply(qty).add(extraPrice.multiply(qty));
+        }
+
+        return ShoppingCartDTO.ShoppingLine.builder()
+                .id(line.id())
+                .productTmplId(line.productTmplId())
+                .productTmplName(product.name())
+                .productTmplDescription(product.description())
+                .qty(line.qty())
+                .priceUnit(product.listPrice())
+                .priceTotal(lineTotal)
+                .attrsAdded(attrsAdded)
+                .pictureUrl(product.pictureUrl())
+                .build();
+    }
+
+    private static void addAttr(
+            Set<ShoppingCartDTO.AttrAddedItem> attrsAdded,
+            ProductIndex index,
+            int attr,
+            StringBuilder names
+    ) {
+        if (attr >= 0 && !names.isEmpty()) {
+            attrsAdded.add(new ShoppingCartDTO.AttrAddedItem(index.attrName[attr], names.toString()));
+        }
+    }
+
+    public record PricedLines(
+            List<ShoppingCartDTO.ShoppingLine> lines,
+            BigDecimal subtotal
+    ) {}
+
+    /**
+     * Flattened attribute values of one product, in catalog order. {@code firstPos} maps an
+     * attrValueId to its first position and {@code nextPos} chains repeated ids.
+     */
+    private static final class ProductIndex {
+
+        private final String[] attrName;
+        private final int[] valueAttr;
+        private final String[] valueName;
+        private final BigDecimal[] valueExtra;
+        private final int[] nextPos;
+        private final IntIntMap firstPos;
+
+        private ProductIndex(int attributes, int values) {
+            this.attrName = new String[attributes];
+            this.valueAttr = new int[values];
+            this.valueName = new String[values];
+            this.valueExtra = new BigDecimal[values];
+            this.nextPos = new int[values];
+            this.firstPos = new IntIntMap(values);
+        }
+
+        static ProductIndex of(ProductPriceDTO product) {
+
+            List<ProductPriceDTO.AttributeDTO> attributes = product.attributes();
+
+            int values = 0;
+            for (ProductPriceDTO.AttributeDTO attribute : attributes) {
+                values += attribute.values().size();
+            }
+
+            ProductIndex index = new ProductIndex(attributes.size(), values);
+            int[] lastPos = new int[values];
+
+            int pos = 0;
+
+            for (int a = 0; a < attributes.size(); a++) {
+
+                index.attrName[a] = attributes.get(a).name();
+
+                for (ProductPriceDTO.AttributeValueDTO value : attributes.get(a).values()) {
+
+                    index.valueAttr[pos] = a;
+                    index.valueName[pos] = value.name();
+                    index.valueExtra[pos] = value.extraPrice() != null ? value.extraPrice() : BigDecimal.ZERO;
+                    index.nextPos[pos] = -1;
+
+                    if (value.attrValueId() != null) {
+
+                        int id = value.attrValueId();
+                        int first = index.firstPos.get(id);
+
+                        if (first < 0) {
+                            index.firstPos.put(id, pos);
+                        } else {
+                            index.nextPos[lastPos[first]] = pos;
+                        }
+
+                        lastPos[first < 0 ? pos : first] = pos;
+                    }
+
+                    pos++;
+                }
+            }
+
+            return index;
+        }
+
+        void select(int attrValueId, BitSet selected) {
+            for (int pos = firstPos.get(attrValueId); pos >= 0; pos = nextPos[pos]) {
+                selected.set(pos);
+            }
+        }
+    }
+
+    /**
+     * Open-addressing int to int map with linear probing; {@code get} returns -1 when absent.
+     */
+    private static final class IntIntMap {
+
+        private final int[] keys;
+        private final int[] values;
+        private final boolean[] used;
+        private final int mask;
+
+        IntIntMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+            this.keys = new int[capacity];
+            this.values = new int[capacity];
+            this.used = new boolean[capacity];
+            this.mask = capacity - 1;
+        }
+
+        void put(int key, int value) {
+            int slot = mix(key) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        int get(int key) {
+            int slot = mix(key) & mask;
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.delicias.shoppingcart.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.inject.Inject;
+import org.delicias.catalog.service.ProductCatalogCache;
+import org.delicias.shoppingcart.dto.CartReadModelStatsDTO;
+import org.delicias.shoppingcart.dto.ShoppingCartDTO;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computed {@link ShoppingCartDTO}s, keyed by cart id and tagged with the cart version and
+ * catalog version they were built from. Committed cart writes replace the entry with a
+ * tombstone carrying the new version, so a view computed from an older snapshot is never
+ * stored over it. Entries built against an older catalog version are ignored on read.
+ * A hit never loads prices, so entries live no longer than the catalog prices: the miss
+ * that follows reloads the expired ones, which bumps the catalog version when they changed.
+ * The cache is local to each instance. With LISTEN/NOTIFY enabled the writes of the other
+ * instances evict it too; otherwise, and for remote data such as addresses, the ttl
+ * bounds how long a view can be served stale.
+ */
+@ApplicationScoped
+public class CartReadModelCache {
+
+    @Inject
+    ProductCatalogCache catalogCache;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "delicias.shoppingcart.read-model.cache.max-size", defaultValue = "10000")
+    long maxSize;
+
+    @ConfigProperty(name = "delicias.shoppingcart.read-model.cache.ttl", defaultValue = "PT1M")
+    Duration ttl;
+
+    private Cache<UUID, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleCatalogMisses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder rejectedPuts = new LongAdder();
+    private final LongAdder servedAgeTotal = new LongAdder();
+    private final LongAccumulator servedAgeMax = new LongAccumulator(Math::max, 0L);
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+    private final LongAdder savedComputeMillis = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        entries = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl.compareTo(catalogCache.ttl()) > 0 ? catalogCache.ttl() : ttl)
+                .build();
+    }
+
+    /**
+     * Returns the cached view when it was computed for the same user and the current catalog.
+     */
+    public Optional<ShoppingCartService.VersionedCart> get(UUID shoppingCartId, String userId) {
+
+        Entry entry = entries.getIfPresent(shoppingCartId);
+
+        if (entry == null || entry.cart() == null || !entry.userId().equals(userId)) {
+            misses.increment();
+            return Optional.empty();
+        }
+
+        if (entry.catalogVersion() != catalogCache.version()) {
+            staleCatalogMisses.increment();
+            misses.increment();
+            return Optional.empty();
+        }
+
+        long age = System.currentTimeMillis() - entry.computedAt();
+
+        servedAgeTotal.add(age);
+        servedAgeMax.accumulate(age);
+        hits.increment();
+
+        return Optional.of(new ShoppingCartService.VersionedCart(entry.cart(), entry.cartVersion(), entry.catalogVersion(), false));
+    }
+
+    public void put(
+            UUID shoppingCartId,
+            String userId,
+            long cartVersion,
+            long catalogVersion,
+            ShoppingCartDTO cart,
+            long computeMillis
+    ) {
+
+        Entry computed = new Entry(
+                cart, userId, cartVersion, catalogVersion, System.currentTimeMillis(), computeMillis, new AtomicInteger(-1)
+        );
+
+        entries.asMap().compute(shoppingCartId, (id, current) -> {
+
+            if (current != null && current.cartVersion() > cartVersion) {
+                rejectedPuts.increment();
+                return current;
+            }
+
+            return computed;
+        });
+    }
+
+    /**
+     * Accounts a 304 answered for the cart and returns what it saved. The payload size is
+     * measured once per cached view, the first time a client revalidates it; both values
+     * are -1 when the view is not cached on this instance.
+     */
+    public SavedWork recordNotModified(UUID shoppingCartId) {
+
+        notModified.increment();
+
+        Entry entry = entries.getIfPresent(shoppingCartId);
+
+        if (entry == null || entry.cart() == null) {
+            return new SavedWork(-1, -1);
+        }
+
+        int bytes = entry.payloadBytes().get();
+
+        if (bytes < 0) {
+            bytes = payloadSize(entry.cart());
+            entry.payloadBytes().set(bytes);
+        }
+
+        savedBytes.add(Math.max(bytes, 0));
+        savedComputeMillis.add(entry.computeMillis());
+
+        return new SavedWork(bytes, entry.computeMillis());
+    }
+
+    void onCartChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) CartChangedEvent event) {
+        evict(event);
+    }
+
+    /**
+     * Replaces the entry with a tombstone at the committed version. Called for this
+     * instance's writes, and for every instance's writes received by
+     * {@link PgCartChangeListener}.
+     */
+    public void evict(CartChangedEvent event) {
+
+        invalidations.increment();
+
+        entries.asMap().merge(
+                event.shoppingCartId(),
+                Entry.tombstone(event.version()),
+                (current, tombstone) -> current.cartVersion() > tombstone.cartVersion() ? current : tombstone
+        );
+    }
+
+    public CartReadModelStatsDTO stats() {
+
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long requests = hitCount + missCount;
+
+        return CartReadModelStatsDTO.builder()
+                .size(entries.estimatedSize())
+                .hits(hitCount)
+                .misses(missCount)
+                .hitRate(requests == 0 ? 0 : (double) hitCount / requests)
+                .staleCatalogMisses(staleCatalogMisses.sum())
+                .invalidations(invalidations.sum())
+                .rejectedPuts(rejectedPuts.sum())
+                .avgServedAgeMillis(hitCount == 0 ? 0 : servedAgeTotal.sum() / hitCount)
+                .maxServedAgeMillis(servedAgeMax.get())
+                .notModified(notModified.sum())
+                .savedBytes(savedBytes.sum())
+                .savedComputeMillis(savedComputeMillis.sum())
+                .build();
+    }
+
+    private int payloadSize(ShoppingCartDTO cart) {
+        try {
+            return objectMapper.writeValueAsBytes(cart).length;
+        } catch (JsonProcessingException e) {
+            return -1;
+        }
+    }
+
+    public record SavedWork(
+            int bytes,
+            long computeMillis
+    ) {}
+
+    private record Entry(
+            ShoppingCartDTO cart,
+            String userId,
+            long cartVersion,
+            long catalogVersion,
+            long computedAt,
+            long computeMillis,
+            // Serialized size, measured lazily
+            AtomicInteger payloadBytes
+    ) {
+
+        static Entry tombstone(long cartVersion) {
+            return new Entry(null, null, cartVersion, 0L, System.currentTimeMillis(), 0L, new AtomicInteger(-1));
+        }
+    }
+}
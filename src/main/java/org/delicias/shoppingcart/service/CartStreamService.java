@@ -0,0 +1,131 @@
+package org.delicias.shoppingcart.service;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.delicias.rest.security.SecurityContextService;
+import org.delicias.shoppingcart.dto.CartDeltaDTO;
+import org.delicias.shoppingcart.dto.ShoppingCartDTO;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Live cart totals: a snapshot on subscription, then a delta for every committed change.
+ * Changes are handled one at a time; a change already covered by the last pushed version
+ * is skipped, so a burst of writes costs one repricing per distinct version at most.
+ */
+@ApplicationScoped
+public class CartStreamService {
+
+    @Inject
+    SecurityContextService security;
+
+    @Inject
+    ShoppingCartService cartService;
+
+    @Inject
+    CartChangeNotifier notifier;
+
+    @Inject
+    ManagedExecutor executor;
+
+    // Changes waiting while a delta is computed; a subscriber that falls further behind is dropped
+    @ConfigProperty(name = "delicias.shoppingcart.stream.buffer-size", defaultValue = "256")
+    int bufferSize;
+
+    public Multi<CartDeltaDTO> stream(UUID shoppingCartId) {
+
+        String userId = security.userId();
+
+        return Multi.createFrom().deferred(() -> {
+
+            AtomicReference<ShoppingCartService.VersionedCart> last = new AtomicReference<>();
+
+            // The change stream is subscribed together with the initial snapshot, so no change in between is lost
+            Multi<Optional<CartChangedEvent>> triggers = Multi.createBy().merging().streams(
+                    Multi.createFrom().item(Optional.empty()),
+                    notifier.changes(shoppingCartId).map(Optional::of)
+            );
+
+            return triggers
+                    .onOverflow().buffer(bufferSize)
+                    .onItem().transformToUniAndConcatenate(trigger -> next(shoppingCartId, userId, trigger, last));
+        });
+    }
+
+    private Uni<CartDeltaDTO> next(
+            UUID shoppingCartId,
+            String userId,
+            Optional<CartChangedEvent> trigger,
+            AtomicReference<ShoppingCartService.VersionedCart> last
+    ) {
+
+        if (trigger.isPresent() && trigger.get().isDeleted()) {
+            return Uni.createFrom().item(CartDeltaDTO.builder()
+                    .id(shoppingCartId)
+                    .kind(CartDeltaDTO.Kind.DELETED)
+                    .build());
+        }
+
+        long minVersion = trigger.map(CartChangedEvent::version).orElse(0L);
+
+        ShoppingCartService.VersionedCart previous = last.get();
+
+        if (previous != null && minVersion <= previous.version()) {
+            return Uni.createFrom().nullItem();
+        }
+
+        return Uni.createFrom().item(() -> cartService.snapshot(shoppingCartId, userId, minVersion))
+                .runSubscriptionOn(executor)
+                .map(cart -> {
+                    ShoppingCartService.VersionedCart before = last.getAndSet(cart);
+                    return before == null ? snapshot(cart) : delta(before.cart(), cart);
+                });
+    }
+
+    private static CartDeltaDTO snapshot(ShoppingCartService.VersionedCart cart) {
+        return CartDeltaDTO.builder()
+                .id(cart.cart().id())
+                .kind(CartDeltaDTO.Kind.SNAPSHOT)
+                .version(cart.version())
+                .changedLines(cart.cart().shoppingLines())
+                .removedLineIds(List.of())
+                .subtotal(cart.cart().subtotal())
+                .total(cart.cart().total())
+                .charges(cart.cart().charges())
+                .build();
+    }
+
+    static CartDeltaDTO delta(ShoppingCartDTO before, ShoppingCartService.VersionedCart after) {
+
+        Map<UUID, ShoppingCartDTO.ShoppingLine> previousLines = before.shoppingLines().stream()
+                .collect(Collectors.toMap(ShoppingCartDTO.ShoppingLine::id, Function.identity()));
+
+        List<ShoppingCartDTO.ShoppingLine> changed = new ArrayList<>();
+
+        for (ShoppingCartDTO.ShoppingLine line : after.cart().shoppingLines()) {
+            if (!line.equals(previousLines.remove(line.id()))) {
+                changed.add(line);
+            }
+        }
+
+        return CartDeltaDTO.builder()
+                .id(after.cart().id())
+                .kind(CartDeltaDTO.Kind.DELTA)
+                .version(after.version())
+                .changedLines(changed)
+                // Whatever is left was not in the new cart
+                .removedLineIds(List.copyOf(previousLines.keySet()))
+                .subtotal(after.cart().subtotal())
+                .total(after.cart().total())
+                .charges(after.cart().charges())
+                .build();
+    }
+}
@@ -0,0 +1,54 @@
+package org.delicias.shoppingcart.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import org.delicias.common.dto.product.ProductPriceDTO;
+import org.delicias.shoppingcart.domain.repository.ShoppingCartRepository;
+import org.delicias.shoppingcart.dto.ShoppingCartDTO;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Stores the totals of a fully priced cart, so the next reads and the line mutations
+ * work from them instead of pricing every line again.
+ */
+@ApplicationScoped
+public class CartTotalsService {
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    /**
+     * Runs in its own short transaction after the cart was priced. Each line total is stored
+     * with the fingerprint of the prices it was computed from. Nothing is stored when the
+     * cart changed in the meantime: the next read prices it again.
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public boolean store(
+            UUID shoppingCartId,
+            long cartVersion,
+            BigDecimal subtotal,
+            List<ShoppingCartDTO.ShoppingLine> lines,
+            Map<Integer, ProductPriceDTO> productsMap
+    ) {
+
+        Map<UUID, ShoppingCartRepository.LineTotal> lineTotals = new HashMap<>(lines.size() * 2);
+        Map<Integer, Long> fingerprints = new HashMap<>();
+
+        for (ShoppingCartDTO.ShoppingLine line : lines) {
+
+            long fingerprint = fingerprints.computeIfAbsent(
+                    line.productTmplId(), id -> CartPricingEngine.fingerprint(productsMap.get(id))
+            );
+
+            lineTotals.put(line.id(), new ShoppingCartRepository.LineTotal(line.priceTotal(), fingerprint));
+        }
+
+        return cartRepository.storeTotals(shoppingCartId, cartVersion, subtotal, lineTotals);
+    }
+}
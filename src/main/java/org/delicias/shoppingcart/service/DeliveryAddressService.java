@@ -0,0 +1,79 @@
+package org.delicias.shoppingcart.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.NotFoundException;
+import org.delicias.common.adjusment.OrderAdjustment;
+import org.delicias.persistence.RetryOnConflict;
+import org.delicias.shoppingcart.domain.model.ShippingQuote;
+import org.delicias.shoppingcart.domain.model.ShoppingCart;
+import org.delicias.shoppingcart.domain.repository.ShoppingCartRepository;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+@ApplicationScoped
+public class DeliveryAddressService {
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    @Inject
+    ShippingQuoteService shippingQuoteService;
+
+    @Inject
+    Event<CartChangedEvent> cartChanged;
+
+    /**
+     * Stores the delivery address picked for a cart together with its shipping quote.
+     * Runs in its own short transaction once every remote lookup has completed. The
+     * shipping charge is upserted by key, and nothing is written when the cart already
+     * holds the same address and quote.
+     */
+    @RetryOnConflict
+    @Transactional
+    public Assignment assign(UUID shoppingCartId, Integer userAddressId, ShippingQuote quote) {
+
+        ShoppingCart shoppingCart = cartRepository.findById(shoppingCartId);
+
+        if (shoppingCart == null) {
+            throw new NotFoundException("ShoppingCart Not Found");
+        }
+
+        boolean unchanged = Objects.equals(shoppingCart.getUserAddressId(), userAddressId)
+                && shoppingCart.getShippingQuote() != null
+                && shoppingCart.getShippingQuote().getQuotedAt() == quote.getQuotedAt();
+
+        if (!unchanged) {
+            shoppingCart.upsertAdjustment(shippingQuoteService.toAdjustment(quote));
+            shoppingCart.setShippingQuote(quote);
+            shoppingCart.setUserAddressId(userAddressId);
+
+            // Flushed here so the versioned update runs now and the event carries the new version
+            cartRepository.flush();
+            cartChanged.fire(new CartChangedEvent(
+                    shoppingCartId, shoppingCart.getVersion(), CartChangedEvent.Type.ADDRESS_CHANGED, null
+            ));
+        }
+
+        return new Assignment(
+                List.copyOf(Optional.ofNullable(shoppingCart.getAdjustments()).orElseGet(List::of)),
+                shoppingCart.getChargesTotal(),
+                shoppingCart.getVersion()
+        );
+    }
+
+    public record Assignment(
+            List<OrderAdjustment> adjustments,
+            // Sum of the adjustment amounts, as stored with them
+            BigDecimal chargesTotal,
+            // Cart version after the assignment
+            long version
+    ) {}
+}
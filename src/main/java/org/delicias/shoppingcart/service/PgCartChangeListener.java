@@ -0,0 +1,172 @@
+package org.delicias.shoppingcart.service;
+
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.delicias.catalog.service.ProductCatalogCache;
+import org.delicias.restaurant.service.RestaurantCache;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Shares cart changes between instances through Postgres LISTEN/NOTIFY. Each change
+ * sends a NOTIFY from the transaction that made it, which Postgres delivers only on
+ * commit; every instance, this one included, listens on a dedicated connection, evicts
+ * the changed carts from its {@link CartReadModelCache} and hands the changes to
+ * {@link CartChangeNotifier}. The same connection receives the
+ * catalog and restaurant cache invalidations sent by any instance. Active when
+ * {@code delicias.shoppingcart.stream.listen-notify.enabled} is set.
+ */
+@ApplicationScoped
+public class PgCartChangeListener {
+
+    static final String CHANNEL = "shopping_cart_changed";
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    CartChangeNotifier notifier;
+
+    @Inject
+    CartReadModelCache readModelCache;
+
+    @Inject
+    ProductCatalogCache catalogCache;
+
+    @Inject
+    RestaurantCache restaurantCache;
+
+    @ConfigProperty(name = "delicias.shoppingcart.stream.listen-notify.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "delicias.shoppingcart.stream.listen-notify.reconnect-delay", defaultValue = "PT5S")
+    Duration reconnectDelay;
+
+    private volatile boolean running;
+
+    private Thread listener;
+
+    void onStart(@Observes StartupEvent event) {
+
+        if (!enabled) {
+            return;
+        }
+
+        running = true;
+
+        listener = new Thread(this::listen, "cart-change-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+
+        running = false;
+
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    // In the writing transaction: Postgres holds the notification back until the commit
+    void onCartChanged(@Observes CartChangedEvent event) {
+
+        if (!enabled) {
+            return;
+        }
+
+        entityManager.createNativeQuery("SELECT pg_notify(:channel, :payload)")
+                .setParameter("channel", CHANNEL)
+                .setParameter("payload", event.shoppingCartId() + ":" + event.version() + ":" + event.type())
+                .getSingleResult();
+    }
+
+    private void listen() {
+
+        while (running) {
+
+            // Holds one pooled connection for as long as the instance runs
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+
+                connection.setAutoCommit(true);
+                statement.execute("LISTEN " + CHANNEL);
+                statement.execute("LISTEN " + ProductCatalogCache.INVALIDATION_CHANNEL);
+                statement.execute("LISTEN " + RestaurantCache.INVALIDATION_CHANNEL);
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+                while (running) {
+
+                    PGNotification[] notifications = pgConnection.getNotifications(10_000);
+
+                    if (notifications == null) {
+                        continue;
+                    }
+
+                    for (PGNotification notification : notifications) {
+                        dispatch(notification);
+                    }
+                }
+
+            } catch (SQLException | RuntimeException e) {
+
+                if (!running) {
+                    return;
+                }
+
+                Log.warnf(e, "Cart change listener lost its connection, reconnecting in %s", reconnectDelay);
+
+                try {
+                    Thread.sleep(reconnectDelay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void dispatch(PGNotification notification) {
+
+        switch (notification.getName()) {
+            case ProductCatalogCache.INVALIDATION_CHANNEL -> catalogCache.onInvalidation(notification.getParameter());
+            case RestaurantCache.INVALIDATION_CHANNEL -> restaurantCache.onInvalidation(notification.getParameter());
+            default -> {
+                CartChangedEvent event = parse(notification.getParameter());
+
+                // Evicted first, so a pushed snapshot never comes from the pre-write view
+                readModelCache.evict(event);
+                notifier.publish(event);
+            }
+        }
+    }
+
+    static CartChangedEvent parse(String payload) {
+
+        String[] parts = payload.split(":");
+
+        return new CartChangedEvent(
+                UUID.fromString(parts[0]),
+                Long.parseLong(parts[1]),
+                CartChangedEvent.Type.valueOf(parts[2]),
+                null
+        );
+    }
+}
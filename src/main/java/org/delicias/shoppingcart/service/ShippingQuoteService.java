@@ -0,0 +1,68 @@
+package org.delicias.shoppingcart.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.delicias.common.adjusment.AdjustmentKeys;
+import org.delicias.common.adjusment.AdjustmentType;
+import org.delicias.common.adjusment.OrderAdjustment;
+import org.delicias.common.dto.restaurant.RestaurantLatLngDTO;
+import org.delicias.common.dto.user.DefaultAddressDTO;
+import org.delicias.shoppingcart.domain.model.ShippingQuote;
+import org.delicias.shoppingcart.domain.repository.DistanceService;
+import org.delicias.shoppingcart.domain.repository.ShippingCostService;
+
+import java.util.function.Supplier;
+
+@ApplicationScoped
+public class ShippingQuoteService {
+
+    @Inject
+    DistanceService distanceService;
+
+    @Inject
+    ShippingCostService shippingCostService;
+
+    /**
+     * Returns the quote stored on the cart when it is still valid for the address,
+     * restaurant and tariff; otherwise measures the distance and prices it again.
+     * The restaurant position is only requested when a new quote is needed.
+     */
+    public ShippingQuote quote(
+            ShippingQuote current,
+            Integer restaurantTmplId,
+            DefaultAddressDTO address,
+            Supplier<RestaurantLatLngDTO> restaurant
+    ) {
+
+        long tariffVersion = shippingCostService.version();
+
+        if (current != null && current.matches(address.data().id(), restaurantTmplId, tariffVersion)) {
+            return current;
+        }
+
+        RestaurantLatLngDTO restaurantLatLng = restaurant.get();
+
+        Integer distance = distanceService.calculate(
+                address.longitude(), address.latitude(),
+                restaurantLatLng.longitude(), restaurantLatLng.latitude()
+        );
+
+        return ShippingQuote.builder()
+                .userAddressId(address.data().id())
+                .restaurantTmplId(restaurantTmplId)
+                .distance(distance)
+                .amount(shippingCostService.calculate(restaurantTmplId, distance))
+                .tariffVersion(tariffVersion)
+                .quotedAt(System.currentTimeMillis())
+                .build();
+    }
+
+    public OrderAdjustment toAdjustment(ShippingQuote quote) {
+        return OrderAdjustment.builder()
+                .key(AdjustmentKeys.SHIPPING_COST)
+                .amount(quote.getAmount().doubleValue())
+                .type(AdjustmentType.CHARGE)
+                .name("Costo de envío")
+                .build();
+    }
+}
@@ -0,0 +1,32 @@
+package org.delicias.shoppingcart.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.delicias.persistence.ReadOnlyTransaction;
+import org.delicias.shoppingcart.domain.model.ShoppingCart;
+import org.delicias.shoppingcart.domain.model.ShoppingCartView;
+import org.delicias.shoppingcart.domain.repository.ShoppingCartRepository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Database reads behind the cart GET endpoints. Each call is its own read-only
+ * transaction, so no connection is held while the services call other services.
+ */
+@ApplicationScoped
+@ReadOnlyTransaction
+public class ShoppingCartQueryService {
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    public Optional<ShoppingCartView> findCart(UUID shoppingCartId) {
+        return cartRepository.findViewById(shoppingCartId);
+    }
+
+    public List<ShoppingCart> findByUser(UUID userUUID) {
+        return cartRepository.findByUser(userUUID);
+    }
+}
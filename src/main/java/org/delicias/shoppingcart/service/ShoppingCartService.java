@@ -1,13 +1,15 @@
 package org.delicias.shoppingcart.service;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.transaction.Transactional;
 import jakarta.ws.rs.NotFoundException;
-import jakarta.ws.rs.core.GenericType;
-import jakarta.ws.rs.core.Response;
-import org.delicias.common.adjusment.AdjustmentKeys;
-import org.delicias.common.adjusment.AdjustmentType;
+import jakarta.ws.rs.core.EntityTag;
+import org.delicias.catalog.service.ProductCatalogCache;
 import org.delicias.common.adjusment.OrderAdjustment;
 import org.delicias.common.dto.order.CandidateOrderDTO;
 import org.delicias.common.dto.product.ProductPriceDTO;
@@ -15,67 +17,124 @@ import org.delicias.common.dto.restaurant.RestaurantLatLngDTO;
 import org.delicias.common.dto.restaurant.RestaurantResumeDTO;
 import org.delicias.common.dto.user.DefaultAddressDTO;
 import org.delicias.common.dto.user.UserShoppingAddressDTO;
-import org.delicias.exception.ShoppingBusinessException;
-import org.delicias.exception.ShoppingErrorCode;
-import org.delicias.line.domain.model.ShoppingCartLine;
-import org.delicias.line.domain.repository.ShoppingCartLineRepository;
-import org.delicias.rest.clients.ProductClient;
-import org.delicias.rest.clients.RestaurantClient;
-import org.delicias.rest.clients.UserClient;
+import org.delicias.gateway.ProductGateway;
+import org.delicias.gateway.UserGateway;
+import org.delicias.http.Conditional;
+import org.delicias.http.EntityTags;
 import org.delicias.rest.security.SecurityContextService;
+import org.delicias.restaurant.service.RestaurantCache;
+import org.delicias.shoppingcart.domain.model.ShippingQuote;
 import org.delicias.shoppingcart.domain.model.ShoppingCart;
-import org.delicias.shoppingcart.domain.repository.ShippingCostService;
-import org.delicias.shoppingcart.domain.repository.ShoppingCartRepository;
+import org.delicias.shoppingcart.domain.model.ShoppingCartView;
 import org.delicias.shoppingcart.dto.ShoppingCartAvailableDTO;
 import org.delicias.shoppingcart.dto.ShoppingCartDTO;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.delicias.telemetry.Instrumented;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 
 @ApplicationScoped
+@Instrumented("delicias.service")
 public class ShoppingCartService {
 
     @Inject
     SecurityContextService security;
 
     @Inject
-    ShoppingCartRepository cartRepository;
+    ShoppingCartQueryService queryService;
 
     @Inject
-    ShoppingCartLineRepository lineRepository;
+    RestaurantCache restaurantCache;
 
     @Inject
-    @RestClient
-    RestaurantClient restaurantClient;
+    ProductCatalogCache catalogCache;
 
     @Inject
-    @RestClient
-    ProductClient productClient;
+    UserGateway userGateway;
 
     @Inject
-    @RestClient
-    UserClient userClient;
+    CartPricingEngine pricingEngine;
 
     @Inject
-    ShippingCostService shippingCostService;
+    ShippingQuoteService shippingQuoteService;
 
-    public List<ShoppingCartAvailableDTO> cartsAvailable() {
+    @Inject
+    DeliveryAddressService deliveryAddressService;
+
+    @Inject
+    CartReadModelCache readModelCache;
+
+    @Inject
+    CartTotalsService totalsService;
+
+    @Inject
+    ManagedExecutor executor;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "delicias.shoppingcart.fan-out.enabled", defaultValue = "true")
+    boolean fanOutEnabled;
+
+    @ConfigProperty(name = "delicias.shoppingcart.non-blocking.enabled", defaultValue = "true")
+    boolean nonBlockingEnabled;
+
+    // Lines held by each computed cart, and how many of them could be priced
+    private DistributionSummary cartLines;
+    private DistributionSummary pricedLines;
+
+    @PostConstruct
+    void init() {
+        cartLines = DistributionSummary.builder("delicias.cart.lines")
+                .description("Lines per computed cart")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        pricedLines = DistributionSummary.builder("delicias.cart.lines.priced")
+                .description("Lines priced per computed cart")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Conditional GET of the user's carts. The tag covers every cart's id and version, so
+     * a 304 is answered from one database read without calling the restaurants service.
+     */
+    public Conditional<List<ShoppingCartAvailableDTO>> cartsAvailable(String ifNoneMatch) {
+
+        var shoppingCarts = queryService.findByUser(UUID.fromString(security.userId()));
+
+        EntityTag current = EntityTags.digest(shoppingCarts.stream()
+                .map(it -> it.getId() + ":" + it.getVersion())
+                .collect(Collectors.joining(",")));
 
-        var shoppingCarts = cartRepository.findByUser(UUID.fromString(security.userId()));
+        if (EntityTags.matchesAny(ifNoneMatch, current)) {
+
+            Log.infof("GET carts: 304 %s, saved the restaurants lookup for %d carts", current, shoppingCarts.size());
+
+            return Conditional.notModified(current);
+        }
+
+        return new Conditional<>(cartsAvailable(shoppingCarts), current);
+    }
+
+    private List<ShoppingCartAvailableDTO> cartsAvailable(List<ShoppingCart> shoppingCarts) {
 
         if (shoppingCarts.isEmpty()) {
             return List.of();
         }
 
-        Map<Integer, RestaurantResumeDTO> restaurantsMap =
-                restaurantClient.getRestaurantsByIds(
-                                shoppingCarts.stream().map(ShoppingCart::getRestaurantTmplId).collect(Collectors.toSet())
-                        )
-                        .stream()
-                        .collect(Collectors.toMap(RestaurantResumeDTO::id, r -> r));
+        Map<Integer, RestaurantResumeDTO> restaurantsMap = restaurantCache.getResumes(
+                shoppingCarts.stream().map(ShoppingCart::getRestaurantTmplId).collect(Collectors.toSet())
+        );
 
         return shoppingCarts.stream().map(it -> {
 
@@ -98,72 +157,261 @@ public class ShoppingCartService {
 
 
 
-    @Transactional
-    public ShoppingCartDTO findById(UUID shoppingCartId) {
+    /**
+     * Conditional GET of a cart. The current tag comes from the read-model cache, or from
+     * the cart version and the catalog version once the cart's prices are current when the
+     * cart is not cached, so a 304 never prices the cart and only calls the products
+     * service for prices whose cache entry expired.
+     */
+    public Conditional<ShoppingCartDTO> findById(UUID shoppingCartId, String ifNoneMatch) {
+
+        String userId = security.userId();
 
-        ShoppingCart shoppingCart = cartRepository.findById(shoppingCartId);
+        Optional<VersionedCart> cached = readModelCache.get(shoppingCartId, userId);
 
-        if (shoppingCart == null) {
-            throw new NotFoundException("ShoppingCart Not Found");
+        return cached.isPresent()
+                ? fromCache(shoppingCartId, cached.get(), ifNoneMatch)
+                : compute(shoppingCartId, userId, ifNoneMatch);
+    }
+
+    /**
+     * Non-blocking variant of {@link #findById(UUID, String)}. Cache hits, and the 304s
+     * answered from them, complete on the calling (event loop) thread; a miss needs the
+     * database and the remote services, so it is moved to the worker pool. With
+     * {@code delicias.shoppingcart.non-blocking.enabled=false} every request goes to the
+     * worker pool, which is how the two models are compared under load.
+     */
+    public Uni<Conditional<ShoppingCartDTO>> findByIdAsync(UUID shoppingCartId, String ifNoneMatch) {
+
+        if (!nonBlockingEnabled) {
+            return Uni.createFrom().item(() -> findById(shoppingCartId, ifNoneMatch))
+                    .runSubscriptionOn(executor);
         }
 
-        BigDecimal subtotal = BigDecimal.ZERO;
+        String userId = security.userId();
 
-        List<ShoppingCartDTO.ShoppingLine> lines = new ArrayList<>();
-        List<ShoppingCartLine> linesAdded = lineRepository.getByShoppingCart(shoppingCartId);
+        Optional<VersionedCart> cached = readModelCache.get(shoppingCartId, userId);
 
-        Map<Integer, ProductPriceDTO> productsMap = getProductPrices(
-                linesAdded.stream().map(ShoppingCartLine::getProductTmplId).collect(Collectors.toSet())
-        )
-                .stream()
-                .collect(Collectors.toMap(ProductPriceDTO::productTmplId, p -> p));
+        if (cached.isPresent()) {
+            return Uni.createFrom().item(fromCache(shoppingCartId, cached.get(), ifNoneMatch));
+        }
 
-        for(ShoppingCartLine line: linesAdded) {
+        return Uni.createFrom().item(() -> compute(shoppingCartId, userId, ifNoneMatch))
+                .runSubscriptionOn(executor);
+    }
+
+    private Conditional<ShoppingCartDTO> fromCache(UUID shoppingCartId, VersionedCart cart, String ifNoneMatch) {
 
-            ProductPriceDTO product = productsMap.get(line.getProductTmplId());
+        EntityTag current = EntityTags.of(cart.version(), cart.catalogVersion());
 
-            if(product != null) {
+        if (EntityTags.matchesAny(ifNoneMatch, current)) {
+            return notModified(shoppingCartId, current);
+        }
 
-                AttrCalculationResult attrResult = calculateAttributes(line, product);
+        return new Conditional<>(cart.cart(), current);
+    }
 
-                BigDecimal basePrice = Optional.ofNullable(product.listPrice()).orElse(BigDecimal.ZERO);
+    private Conditional<ShoppingCartDTO> compute(UUID shoppingCartId, String userId, String ifNoneMatch) {
 
-                BigDecimal lineTotal = basePrice.multiply(BigDecimal.valueOf(line.getQty()))
-                        .add(attrResult.extraPrice());
+        if (ifNoneMatch != null) {
 
-                lines.add(buildShoppingLine(line, lineTotal, attrResult, product));
+            // Reloading expired prices bumps the catalog version when they changed
+            EntityTag current = queryService.findCart(shoppingCartId)
+                    .map(cart -> {
+                        catalogCache.getPrices(cart.lines().stream()
+                                .map(ShoppingCartView.Line::productTmplId)
+                                .collect(Collectors.toSet()));
+                        return EntityTags.of(cart.version(), catalogCache.version());
+                    })
+                    .orElse(null);
 
-                subtotal = subtotal.add(lineTotal);
+            if (current != null && EntityTags.matchesAny(ifNoneMatch, current)) {
+                return notModified(shoppingCartId, current);
             }
+        }
+
+        VersionedCart cart = computeAndCache(shoppingCartId, userId);
+
+        return new Conditional<>(cart.cart(), EntityTags.of(cart.version(), cart.catalogVersion()));
+    }
+
+    private Conditional<ShoppingCartDTO> notModified(UUID shoppingCartId, EntityTag current) {
+
+        CartReadModelCache.SavedWork saved = readModelCache.recordNotModified(shoppingCartId);
+
+        Log.infof("GET cart %s: 304 %s, saved %s bytes and %s ms of pricing",
+                shoppingCartId, current,
+                saved.bytes() < 0 ? "?" : saved.bytes(),
+                saved.computeMillis() < 0 ? "?" : saved.computeMillis());
+
+        return Conditional.notModified(current);
+    }
+
+    /**
+     * Serves the cart from the read-model cache when it is current; otherwise the cart is
+     * priced from the database and the remote services, then cached under the cart and
+     * catalog versions it was built from.
+     */
+    public ShoppingCartDTO findById(UUID shoppingCartId) {
+
+        String userId = security.userId();
+
+        return readModelCache.get(shoppingCartId, userId)
+                .orElseGet(() -> computeAndCache(shoppingCartId, userId))
+                .cart();
+    }
+
+    private VersionedCart computeAndCache(UUID shoppingCartId, String userId) {
+
+        // Read before the prices are loaded, so an invalidation during the load marks this view stale
+        long catalogVersion = catalogCache.version();
+
+        long started = System.nanoTime();
+
+        VersionedCart computed = computeCart(shoppingCartId, catalogVersion);
 
+        if (!computed.degraded()) {
+            readModelCache.put(
+                    shoppingCartId, userId, computed.version(), catalogVersion, computed.cart(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+            );
         }
 
-        DeliveryAddressResult deliveryAddress = resolveDeliveryAddress(shoppingCart);
+        return computed;
+    }
 
-        List<ShoppingCartDTO.ShoppingCharge> charges =
-                getShoppingCharges(shoppingCart.getAdjustments());
+    private VersionedCart computeCart(UUID shoppingCartId, long catalogVersion) {
+
+        ShoppingCartView shoppingCart = queryService.findCart(shoppingCartId)
+                .orElseThrow(() -> new NotFoundException("ShoppingCart Not Found"));
+
+        List<ShoppingCartView.Line> linesAdded = shoppingCart.lines();
+
+        RemoteCartData remote = fetchRemoteData(
+                shoppingCart,
+                linesAdded.stream().map(ShoppingCartView.Line::productTmplId).collect(Collectors.toSet())
+        );
+
+        Map<Integer, ProductPriceDTO> productsMap = remote.prices().prices()
+                .stream()
+                .collect(Collectors.toMap(ProductPriceDTO::productTmplId, p -> p));
 
+        CartPricingEngine.PricedLines priced =
+                priceLines(shoppingCart, productsMap, remote.prices().lastKnown());
 
-        BigDecimal totalCharges = charges.stream()
-                .map(i->BigDecimal.valueOf(i.amount()))
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        cartLines.record(linesAdded.size());
+        pricedLines.record(priced.lines().size());
 
-        return ShoppingCartDTO.builder()
-                .id(shoppingCart.getId())
-                .restaurantTmplId(shoppingCart.getRestaurantTmplId())
-                .shoppingLines(lines)
+        DeliveryAddressResult deliveryAddress = resolveDeliveryAddress(shoppingCart, remote);
+
+        List<ShoppingCartDTO.ShoppingCharge> charges =
+                getShoppingCharges(deliveryAddress.adjustments());
+
+        return new VersionedCart(ShoppingCartDTO.builder()
+                .id(shoppingCart.id())
+                .restaurantTmplId(shoppingCart.restaurantTmplId())
+                .shoppingLines(priced.lines())
                 .charges(charges)
                 .hasDeliveryAddress(deliveryAddress.hasDeliveryAddress)
                 .deliveryAddress(deliveryAddress.deliveryAddress)
-                .subtotal(subtotal)
-                .total(subtotal.add(totalCharges))
-                .build();
+                .subtotal(priced.subtotal())
+                .total(priced.subtotal().add(deliveryAddress.chargesTotal()))
+                .build(),
+                deliveryAddress.version(),
+                catalogVersion,
+                deliveryAddress.degraded() || remote.prices().lastKnown()
+        );
+    }
+
+    /**
+     * Cart pushed on the live stream. Served from the read-model cache when it holds at
+     * least {@code minVersion}; otherwise priced from the database with the address and
+     * charges the cart already holds, because the stream runs outside of any request and
+     * must not call the users service on the user's behalf. Such views are not cached.
+     */
+    public VersionedCart snapshot(UUID shoppingCartId, String userId, long minVersion) {
+
+        Optional<VersionedCart> cached = readModelCache.get(shoppingCartId, userId);
+
+        if (cached.isPresent() && cached.get().version() >= minVersion) {
+            return cached.get();
+        }
+
+        long catalogVersion = catalogCache.version();
+
+        ShoppingCartView shoppingCart = queryService.findCart(shoppingCartId)
+                .filter(cart -> cart.userUUID().equals(UUID.fromString(userId)))
+                .orElseThrow(() -> new NotFoundException("ShoppingCart Not Found"));
+
+        ProductGateway.Prices prices = getProductPrices(
+                shoppingCart.lines().stream().map(ShoppingCartView.Line::productTmplId).collect(Collectors.toSet())
+        );
+
+        Map<Integer, ProductPriceDTO> productsMap = prices.prices().stream()
+                .collect(Collectors.toMap(ProductPriceDTO::productTmplId, p -> p));
+
+        CartPricingEngine.PricedLines priced = priceLines(shoppingCart, productsMap, prices.lastKnown());
+
+        List<ShoppingCartDTO.ShoppingCharge> charges = getShoppingCharges(shoppingCart.adjustments());
+
+        return new VersionedCart(ShoppingCartDTO.builder()
+                .id(shoppingCart.id())
+                .restaurantTmplId(shoppingCart.restaurantTmplId())
+                .shoppingLines(priced.lines())
+                .charges(charges)
+                .hasDeliveryAddress(shoppingCart.userAddressId() != null)
+                .subtotal(priced.subtotal())
+                .total(priced.subtotal().add(shoppingCart.chargesTotal()))
+                .build(),
+                shoppingCart.version(),
+                catalogVersion,
+                true
+        );
+    }
+
+    /**
+     * Lines and subtotal of the cart. While every stored line total was priced from the
+     * prices just loaded they are used as they are; otherwise every line is priced again
+     * and, when all of them could be from current prices, the new totals are stored for the
+     * next reads and writes. Totals priced from last-known prices are never stored.
+     */
+    private CartPricingEngine.PricedLines priceLines(
+            ShoppingCartView shoppingCart,
+            Map<Integer, ProductPriceDTO> productsMap,
+            boolean lastKnownPrices
+    ) {
+
+        if (shoppingCart.subtotal() != null) {
+
+            Optional<CartPricingEngine.PricedLines> stored =
+                    pricingEngine.describe(shoppingCart.lines(), productsMap, shoppingCart.subtotal());
+
+            if (stored.isPresent()) {
+                return stored.get();
+            }
+        }
+
+        CartPricingEngine.PricedLines priced = pricingEngine.price(shoppingCart.lines(), productsMap);
+
+        if (!lastKnownPrices && priced.lines().size() == shoppingCart.lines().size()) {
+            try {
+                totalsService.store(
+                        shoppingCart.id(), shoppingCart.version(), priced.subtotal(), priced.lines(), productsMap
+                );
+            } catch (RuntimeException e) {
+                // The read never fails on the write-back, the next read prices the cart again
+                Log.warnf(e, "Could not store the totals of cart %s", shoppingCart.id());
+            }
+        }
+
+        return priced;
     }
 
-    @Transactional
     public CandidateOrderDTO getCandidateOrder(UUID shoppingCartUUID) {
+        return toCandidateOrder(findById(shoppingCartUUID));
+    }
 
-        ShoppingCartDTO shoppingCartDTO = findById(shoppingCartUUID);
+    static CandidateOrderDTO toCandidateOrder(ShoppingCartDTO shoppingCartDTO) {
 
         return CandidateOrderDTO.builder()
                 .lines(shoppingCartDTO.shoppingLines().stream().map(it -> CandidateOrderDTO.Line.builder()
@@ -195,71 +443,71 @@ public class ShoppingCartService {
     }
 
 
-    private List<ProductPriceDTO> getProductPrices(Set<Integer> ids) {
+    /**
+     * Issues the product, address and restaurant lookups needed to render a cart.
+     * In fan-out mode the three calls run concurrently on the managed executor, so
+     * the cart view waits for the slowest dependency instead of the sum of all of them.
+     * The restaurant position is only needed when the cart has no address yet, so it
+     * is requested speculatively and its failure is only surfaced if it gets used.
+     */
+    private RemoteCartData fetchRemoteData(ShoppingCartView shoppingCart, Set<Integer> productIds) {
 
-        try (Response response = productClient.getProductTmplPrices(ids)) {
+        boolean needsRestaurant = shoppingCart.userAddressId() == null;
 
-            if(response.getStatus() == Response.Status.PARTIAL_CONTENT.getStatusCode()) {
-
-                throw new ShoppingBusinessException(
-                        "Can't get prices",
-                        ShoppingErrorCode.SHOPPING_BAD_PRICES,
-                        400
-                );
-            }
-            return response.readEntity(new GenericType<>() {});
+        if (!fanOutEnabled) {
+            return new RemoteCartData(
+                    getProductPrices(productIds),
+                    lookupAddress(shoppingCart),
+                    needsRestaurant ? () -> getRestaurantLatLng(shoppingCart.restaurantTmplId()) : () -> null
+            );
         }
-    }
 
-    private RestaurantLatLngDTO getRestaurantLatLng(Integer restaurantTmplId) {
+        CompletableFuture<ProductGateway.Prices> prices =
+                CompletableFuture.supplyAsync(() -> getProductPrices(productIds), executor);
 
-        RestaurantLatLngDTO restaurant = restaurantClient.getLatLng(restaurantTmplId);
+        CompletableFuture<AddressLookup> address =
+                CompletableFuture.supplyAsync(() -> lookupAddress(shoppingCart), executor);
 
-        if(restaurant.latitude().equals(Double.NaN) || restaurant.longitude().equals(Double.NaN)) {
-            throw new ShoppingBusinessException(
-                    "Can't get restaurant position",
-                    ShoppingErrorCode.SHOPPING_BAD_RESTAURANT_LAT_LNG,
-                    400
-            );
-        }
+        CompletableFuture<RestaurantLatLngDTO> restaurant = needsRestaurant
+                ? CompletableFuture.supplyAsync(() -> getRestaurantLatLng(shoppingCart.restaurantTmplId()), executor)
+                : CompletableFuture.completedFuture(null);
 
-        return restaurant;
+        return new RemoteCartData(join(prices), join(address), () -> join(restaurant));
     }
 
-    private DefaultAddressDTO getUserAddressDefault() {
+    private AddressLookup lookupAddress(ShoppingCartView shoppingCart) {
 
-        try (Response response = userClient.getUserAddressDefault()) {
+        if (shoppingCart.userAddressId() != null) {
+            return userGateway.getUserAddress(shoppingCart.userAddressId())
+                    .map(address -> new AddressLookup(address, null, false))
+                    .orElseGet(AddressLookup::unavailable);
+        }
 
-            if(response.getStatus() == Response.Status.PARTIAL_CONTENT.getStatusCode()) {
+        return userGateway.getUserAddressDefault()
+                .map(address -> new AddressLookup(null, address, false))
+                .orElseGet(AddressLookup::unavailable);
+    }
 
-                throw new ShoppingBusinessException(
-                        "Can't get default user address",
-                        ShoppingErrorCode.SHOPPING_BAD_USER_ADDRESS_DEFAULT,
-                        400
-                );
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
-            return response.readEntity(DefaultAddressDTO.class);
+            throw e;
         }
     }
 
-    private UserShoppingAddressDTO getShoppingAddress(Integer addressId) {
-
-        try (Response response = userClient.getUserAddress(addressId)) {
-
-            if(response.getStatus() == Response.Status.PARTIAL_CONTENT.getStatusCode()) {
-
-                throw new ShoppingBusinessException(
-                        "Can't get shopping address",
-                        ShoppingErrorCode.SHOPPING_BAD_USER_ADDRESS_DEFAULT,
-                        400
-                );
-            }
-            return response.readEntity(UserShoppingAddressDTO.class);
-        }
+    private ProductGateway.Prices getProductPrices(Set<Integer> ids) {
+        return catalogCache.getPrices(ids);
     }
 
+    private RestaurantLatLngDTO getRestaurantLatLng(Integer restaurantTmplId) {
+        return restaurantCache.getLatLng(restaurantTmplId);
+    }
 
-    private static List<ShoppingCartDTO.ShoppingCharge> getShoppingCharges(List<OrderAdjustment> adjustments) {
+    static List<ShoppingCartDTO.ShoppingCharge> getShoppingCharges(List<OrderAdjustment> adjustments) {
         List<ShoppingCartDTO.ShoppingCharge> charges;
         charges = Optional.ofNullable(adjustments)
                 .orElseGet(List::of)
@@ -274,11 +522,25 @@ public class ShoppingCartService {
         return charges;
     }
 
-    private DeliveryAddressResult resolveDeliveryAddress(ShoppingCart shoppingCart) {
+    private DeliveryAddressResult resolveDeliveryAddress(ShoppingCartView shoppingCart, RemoteCartData remote) {
 
-        if(shoppingCart.getUserAddressId() != null) {
+        if (remote.address().unavailable()) {
 
-            UserShoppingAddressDTO address = getShoppingAddress(shoppingCart.getUserAddressId());
+            // Users service unavailable: keep the address and charges the cart already holds
+            return new DeliveryAddressResult(shoppingCart.userAddressId() != null,
+                    shoppingCart.userAddressId() != null
+                            ? ShoppingCartDTO.DeliveryAddress.builder().id(shoppingCart.userAddressId()).build()
+                            : null,
+                    shoppingCart.adjustments(),
+                    shoppingCart.chargesTotal(),
+                    shoppingCart.version(),
+                    true
+            );
+        }
+
+        if(remote.address().shoppingAddress() != null) {
+
+            UserShoppingAddressDTO address = remote.address().shoppingAddress();
 
             return new DeliveryAddressResult(true,
                     ShoppingCartDTO.DeliveryAddress.builder()
@@ -286,103 +548,88 @@ public class ShoppingCartService {
                             .name(address.name())
                             .address(address.address())
                             .addressType(address.addressType())
-                            .build()
+                            .build(),
+                    shoppingCart.adjustments(),
+                    shoppingCart.chargesTotal(),
+                    shoppingCart.version(),
+                    false
             );
         }
 
-        DefaultAddressDTO defaultAddress = getUserAddressDefault();
+        DefaultAddressDTO defaultAddress = remote.address().defaultAddress();
 
         if(defaultAddress.exists()) {
 
-            RestaurantLatLngDTO restaurantLatLng  = getRestaurantLatLng(shoppingCart.getRestaurantTmplId());
-
-            Integer distance = cartRepository.getDistance(
-                    defaultAddress.longitude(), defaultAddress.latitude(),
-                    restaurantLatLng.longitude(), restaurantLatLng.latitude()
+            ShippingQuote quote = shippingQuoteService.quote(
+                    shoppingCart.shippingQuote(),
+                    shoppingCart.restaurantTmplId(),
+                    defaultAddress,
+                    remote.restaurant()
             );
 
-            double shipmentCost = shippingCostService.calculate(distance);
-
-            shoppingCart.addAdjustment(OrderAdjustment.builder()
-                    .key(AdjustmentKeys.SHIPPING_COST)
-                    .amount(shipmentCost)
-                    .type(AdjustmentType.CHARGE)
-                    .name("Costo de envío")
-                    .build());
-
-            shoppingCart.setUserAddressId(defaultAddress.data().id());
+            DeliveryAddressService.Assignment assignment = deliveryAddressService.assign(
+                    shoppingCart.id(),
+                    defaultAddress.data().id(),
+                    quote
+            );
 
             return new DeliveryAddressResult(true, ShoppingCartDTO.DeliveryAddress.builder()
                     .id(defaultAddress.data().id())
                     .name(defaultAddress.data().name())
                     .address(defaultAddress.data().address())
                     .addressType(defaultAddress.data().addressType())
-                    .build()
+                    .build(),
+                    assignment.adjustments(),
+                    assignment.chargesTotal(),
+                    // Only our own assignment may sit between the snapshot and this version, otherwise the lines could be stale
+                    assignment.version() == shoppingCart.version() + 1 ? assignment.version() : shoppingCart.version(),
+                    false
             );
         }
 
-        return new DeliveryAddressResult(false, null);
+        return new DeliveryAddressResult(
+                false, null, shoppingCart.adjustments(), shoppingCart.chargesTotal(), shoppingCart.version(), false
+        );
 
     }
 
 
-    private AttrCalculationResult calculateAttributes(ShoppingCartLine line, ProductPriceDTO product) {
-
-        Set<Integer> selectedIds = line.getAttrValuesIds() != null ?
-                new HashSet<>(line.getAttrValuesIds()) : Collections.emptySet();
-
-        BigDecimal extraPrice = product.attributes().stream()
-                .flatMap(attr -> attr.values().stream())
-                .filter(v -> selectedIds.contains(v.attrValueId()))
-                .map(v -> Optional.ofNullable(v.extraPrice()).orElse(BigDecimal.ZERO))
-                .reduce(BigDecimal.ZERO, BigDecimal::add)
-                .multiply(BigDecimal.valueOf(line.getQty()));
-
-
-        Set<ShoppingCartDTO.AttrAddedItem> attrsAdded = product.attributes().stream()
-                .map(attr -> {
-                    String selectedValuesNames = attr.values().stream()
-                            .filter(v -> selectedIds.contains(v.attrValueId()))
-                            .map(ProductPriceDTO.AttributeValueDTO::name)
-                            .collect(Collectors.joining(", "));
-
-                    return new AbstractMap.SimpleEntry<>(attr.name(), selectedValuesNames);
-                })
-                .filter(e -> !e.getValue().isEmpty())
-                .map(e -> new ShoppingCartDTO.AttrAddedItem(e.getKey(), e.getValue()))
-                .collect(Collectors.toCollection(LinkedHashSet::new));
+    /**
+     * A computed cart together with the cart and catalog versions it was built from.
+     * Degraded carts were built while a dependency was unavailable and are not cached.
+     */
+    public record VersionedCart(
+            ShoppingCartDTO cart,
+            long version,
+            long catalogVersion,
+            boolean degraded
+    ) {}
 
-        return new AttrCalculationResult(extraPrice, selectedIds, attrsAdded);
-    }
+    private record DeliveryAddressResult(
+            boolean hasDeliveryAddress,
+            ShoppingCartDTO.DeliveryAddress deliveryAddress,
+            List<OrderAdjustment> adjustments,
+            // Stored sum of the adjustments, so reads never add them up again
+            BigDecimal chargesTotal,
+            // Cart version once the address was resolved
+            long version,
+            boolean degraded
+    ) {}
 
-    private ShoppingCartDTO.ShoppingLine buildShoppingLine(
-            ShoppingCartLine line,
-            BigDecimal lineTotal,
-            AttrCalculationResult attrResult,
-            ProductPriceDTO product
+    private record AddressLookup(
+            UserShoppingAddressDTO shoppingAddress,
+            DefaultAddressDTO defaultAddress,
+            boolean unavailable
     ) {
-        return ShoppingCartDTO.ShoppingLine.builder()
-                .id(line.getId())
-                .productTmplId(line.getProductTmplId())
-                .productTmplName(product.name())
-                .productTmplDescription(product.description())
-                .qty(line.getQty())
-                .priceUnit(product.listPrice())
-                .priceTotal(lineTotal)
-                .attrsAdded(attrResult.attrsAdded())
-                .pictureUrl(product.pictureUrl())
-                .build();
-    }
 
+        static AddressLookup unavailable() {
+            return new AddressLookup(null, null, true);
+        }
+    }
 
-    private record AttrCalculationResult(
-            BigDecimal extraPrice,
-            Set<Integer> selectedIds,
-            Set<ShoppingCartDTO.AttrAddedItem> attrsAdded
-    ) {}
-
-    private record DeliveryAddressResult(
-            boolean hasDeliveryAddress,
-            ShoppingCartDTO.DeliveryAddress deliveryAddress
+    private record RemoteCartData(
+            ProductGateway.Prices prices,
+            AddressLookup address,
+            Supplier<RestaurantLatLngDTO> restaurant
     ) {}
 }
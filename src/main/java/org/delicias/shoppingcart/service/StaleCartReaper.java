@@ -0,0 +1,225 @@
+package org.delicias.shoppingcart.service;
+
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.logging.Log;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import org.delicias.shoppingcart.domain.repository.ShoppingCartRepository;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Purges carts with no line mutation for longer than the TTL. Each chunk is one short
+ * transaction running a single delete statement for the carts and their lines, so no
+ * cart or line entity is ever loaded. The chunk size adapts to the database: a chunk
+ * slower than the target halves the next one and pauses for as long as it took, a fast
+ * chunk grows the next one back towards the configured size.
+ * <p>
+ * A run holds a session advisory lock on a connection of its own from the first chunk to
+ * the last, so only one instance purges idle carts at a time.
+ */
+@ApplicationScoped
+public class StaleCartReaper {
+
+    // Shared by every instance, so only one of them purges idle carts at a time
+    private static final long REAPER_LOCK_KEY = 0x5C_0B_0C_5AL;
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    @Inject
+    Event<CartChangedEvent> cartChanged;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "delicias.shoppingcart.reaper.ttl", defaultValue = "P30D")
+    Duration ttl;
+
+    @ConfigProperty(name = "delicias.shoppingcart.reaper.batch-size", defaultValue = "500")
+    int maxBatchSize;
+
+    @ConfigProperty(name = "delicias.shoppingcart.reaper.min-batch-size", defaultValue = "20")
+    int minBatchSize;
+
+    @ConfigProperty(name = "delicias.shoppingcart.reaper.target-batch-time", defaultValue = "PT0.2S")
+    Duration targetBatchTime;
+
+    @ConfigProperty(name = "delicias.shoppingcart.reaper.pause", defaultValue = "PT0.05S")
+    Duration pause;
+
+    @ConfigProperty(name = "delicias.shoppingcart.reaper.max-run", defaultValue = "PT5M")
+    Duration maxRun;
+
+    private Timer batches;
+    private Counter deletedCarts;
+    private Counter deletedLines;
+
+    // Chunk size for the next batch, kept between runs
+    private final AtomicInteger batchSize = new AtomicInteger();
+
+    // Carts deleted per second by the last run
+    private final AtomicLong lastRunRate = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        batchSize.set(maxBatchSize);
+
+        batches = Timer.builder("delicias.reaper.batch")
+                .description("Time to delete one chunk of idle carts")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        deletedCarts = registry.counter("delicias.reaper.deleted", "table", "shopping_cart");
+        deletedLines = registry.counter("delicias.reaper.deleted", "table", "shopping_cart_line");
+
+        registry.gauge("delicias.reaper.batch.size", batchSize);
+        registry.gauge("delicias.reaper.carts.per.second", lastRunRate);
+    }
+
+    @Scheduled(
+            identity = "stale-cart-reaper",
+            every = "${delicias.shoppingcart.reaper.every:1h}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP
+    )
+    void scheduledReap() {
+        try {
+            reap();
+        } catch (RuntimeException e) {
+            Log.warnf(e, "Stale cart reaper failed, the remaining carts are purged on the next run");
+        }
+    }
+
+    /**
+     * Deletes the carts idle since before now minus the TTL, until none is left, another
+     * instance is purging, or {@code max-run} has elapsed. Returns the carts deleted.
+     */
+    public long reap() {
+
+        // Chunks run on pooled connections, the lock stays on this one until the run ends
+        try (Connection lock = dataSource.getConnection();
+             Statement statement = lock.createStatement()) {
+
+            lock.setAutoCommit(true);
+
+            if (!tryLock(statement)) {
+                return 0;
+            }
+
+            try {
+                return reapChunks();
+            } finally {
+                statement.execute("SELECT pg_advisory_unlock(" + REAPER_LOCK_KEY + ")");
+            }
+
+        } catch (SQLException e) {
+            throw new IllegalStateException("Stale cart reaper could not hold its lock", e);
+        }
+    }
+
+    private static boolean tryLock(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT pg_try_advisory_lock(" + REAPER_LOCK_KEY + ")")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private long reapChunks() {
+
+        Instant cutoff = Instant.now().minus(ttl);
+        long deadline = System.nanoTime() + maxRun.toNanos();
+        long started = System.nanoTime();
+
+        ShoppingCartRepository.ReaperCursor cursor = ShoppingCartRepository.ReaperCursor.START;
+        long carts = 0;
+        long lines = 0;
+
+        while (System.nanoTime() < deadline) {
+
+            int limit = batchSize.get();
+            long batchStarted = System.nanoTime();
+
+            ShoppingCartRepository.Reaped reaped = reapBatch(cutoff, cursor, limit);
+            long elapsed = System.nanoTime() - batchStarted;
+
+            batches.record(elapsed, TimeUnit.NANOSECONDS);
+            deletedCarts.increment(reaped.cartIds().size());
+            deletedLines.increment(reaped.lines());
+
+            carts += reaped.cartIds().size();
+            lines += reaped.lines();
+            // A short chunk may only mean carts locked by a mutation were skipped
+            if (reaped.cartIds().isEmpty()) {
+                break;
+            }
+
+            cursor = reaped.cursor();
+
+            backOff(elapsed, limit);
+        }
+
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        lastRunRate.set(carts * 1000 / millis);
+
+        if (carts > 0) {
+            Log.infof("Stale cart reaper: deleted %d carts and %d lines idle since %s", carts, lines, cutoff);
+        }
+
+        return carts;
+    }
+
+    private ShoppingCartRepository.Reaped reapBatch(Instant cutoff, ShoppingCartRepository.ReaperCursor cursor, int limit) {
+
+        return QuarkusTransaction.requiringNew().call(() -> {
+
+            ShoppingCartRepository.Reaped reaped = cartRepository.deleteIdle(cutoff, cursor, limit);
+
+            // Downstream services, live streams and the read-model cache learn about each removal
+            reaped.cartIds().forEach(id -> cartChanged.fire(CartChangedEvent.deleted(id)));
+
+            return reaped;
+        });
+    }
+
+    /**
+     * Adjusts the next chunk to the time this one took and waits before it: a slow chunk
+     * means the database is busy, so the reaper gives it back at least as much time.
+     */
+    private void backOff(long elapsedNanos, int limit) {
+
+        long wait = pause.toNanos();
+
+        if (elapsedNanos > targetBatchTime.toNanos()) {
+            batchSize.set(Math.max(minBatchSize, limit / 2));
+            wait = Math.max(wait, elapsedNanos);
+        } else if (elapsedNanos < targetBatchTime.toNanos() / 2) {
+            batchSize.set(Math.min(maxBatchSize, limit + Math.max(1, limit / 4)));
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Stale cart reaper interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.delicias.telemetry;
+
+import jakarta.enterprise.util.Nonbinding;
+import jakarta.interceptor.InterceptorBinding;
+
+import java.lang.annotation.*;
+
+/**
+ * Times every call of the annotated bean or method into the {@link #value()} histogram,
+ * tagged by class and method, counts its failures and wraps it in a span. A method-level
+ * annotation overrides the class-level one, e.g. to name the remote operation a gateway
+ * method stands for.
+ */
+@Inherited
+@InterceptorBinding
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Instrumented {
+
+    /**
+     * Timer name; failures are counted in {@code <name>.failures}.
+     */
+    @Nonbinding
+    String value() default "delicias.calls";
+
+    /**
+     * Method tag and span name, defaults to the Java method name.
+     */
+    @Nonbinding
+    String operation() default "";
+}
@@ -0,0 +1,137 @@
+package org.delicias.telemetry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.quarkus.arc.ArcInvocationContext;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.interceptor.AroundInvoke;
+import jakarta.interceptor.Interceptor;
+import jakarta.interceptor.InvocationContext;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Instrumented
+@Interceptor
+// Outside the retry and transaction interceptors, so the timer covers every attempt and the commit
+@Priority(Interceptor.Priority.PLATFORM_BEFORE + 50)
+public class InstrumentedInterceptor {
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    Tracer tracer;
+
+    private final Map<Key, Probe> probes = new ConcurrentHashMap<>();
+
+    @AroundInvoke
+    Object observe(InvocationContext context) throws Exception {
+
+        Probe probe = probes.computeIfAbsent(
+                new Key(beanClass(context.getTarget()), context.getMethod()),
+                key -> probe(key, binding(context))
+        );
+
+        Span span = tracer.spanBuilder(probe.spanName())
+                .setAttribute("code.namespace", probe.namespace())
+                .setAttribute("code.function", probe.operation())
+                .startSpan();
+
+        Timer.Sample sample = Timer.start(registry);
+
+        Object result;
+
+        try (Scope ignored = span.makeCurrent()) {
+            result = context.proceed();
+
+        } catch (Exception e) {
+            finish(probe, span, sample, e);
+            throw e;
+        }
+
+        // Asynchronous methods are measured until their result completes, not until they return
+        if (result instanceof Uni<?> uni) {
+            return uni.onTermination().invoke((item, failure, cancelled) -> finish(probe, span, sample, failure));
+        }
+
+        finish(probe, span, sample, null);
+
+        return result;
+    }
+
+    private void finish(Probe probe, Span span, Timer.Sample sample, Throwable failure) {
+
+        if (failure != null) {
+
+            span.recordException(failure);
+            span.setStatus(StatusCode.ERROR);
+
+            registry.counter(probe.name() + ".failures",
+                    "class", probe.className(),
+                    "method", probe.operation(),
+                    "exception", failure.getClass().getSimpleName()
+            ).increment();
+        }
+
+        sample.stop(probe.timer());
+        span.end();
+    }
+
+    private Probe probe(Key key, Instrumented binding) {
+
+        String operation = binding.operation().isEmpty() ? key.method().getName() : binding.operation();
+        String className = key.beanClass().getSimpleName();
+
+        Timer timer = Timer.builder(binding.value())
+                .tag("class", className)
+                .tag("method", operation)
+                .publishPercentileHistogram()
+                .register(registry);
+
+        return new Probe(binding.value(), className, key.beanClass().getName(), operation, timer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Instrumented binding(InvocationContext context) {
+
+        Set<Annotation> bindings = (Set<Annotation>) context.getContextData()
+                .get(ArcInvocationContext.KEY_INTERCEPTOR_BINDINGS);
+
+        return bindings.stream()
+                .filter(Instrumented.class::isInstance)
+                .map(Instrumented.class::cast)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    // Intercepted beans are ArC-generated subclasses; inherited methods (Panache) need the bean's own class
+    private static Class<?> beanClass(Object target) {
+
+        Class<?> type = target.getClass();
+
+        while (type.getName().endsWith("_Subclass")) {
+            type = type.getSuperclass();
+        }
+
+        return type;
+    }
+
+    private record Key(Class<?> beanClass, Method method) {}
+
+    private record Probe(String name, String className, String namespace, String operation, Timer timer) {
+
+        String spanName() {
+            return className + "." + operation;
+        }
+    }
+}
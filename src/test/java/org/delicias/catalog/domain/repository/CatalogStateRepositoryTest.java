@@ -0,0 +1,42 @@
+package org.delicias.catalog.domain.repository;
+
+import io.quarkus.test.TestTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+class CatalogStateRepositoryTest {
+
+    @Inject
+    CatalogStateRepository stateRepository;
+
+    @Test
+    @TestTransaction
+    void testOnlyChangedPricesAreReported() {
+
+        // Products seen for the first time have nothing to be compared with
+        assertEquals(Set.of(), stateRepository.recordPrices(fingerprints(9001, 10L, 9002, 20L)));
+
+        assertEquals(Set.of(), stateRepository.recordPrices(fingerprints(9001, 10L, 9002, 20L)));
+
+        assertEquals(Set.of(9002), stateRepository.recordPrices(fingerprints(9001, 10L, 9002, 21L)));
+
+        assertEquals(Set.of(), stateRepository.recordPrices(fingerprints(9002, 21L, 9003, 30L)));
+    }
+
+    private static Map<Integer, Long> fingerprints(int id, long fingerprint, int otherId, long otherFingerprint) {
+
+        Map<Integer, Long> fingerprints = new TreeMap<>();
+        fingerprints.put(id, fingerprint);
+        fingerprints.put(otherId, otherFingerprint);
+
+        return fingerprints;
+    }
+}
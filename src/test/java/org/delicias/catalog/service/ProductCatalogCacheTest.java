@@ -0,0 +1,119 @@
+package org.delicias.catalog.service;
+
+import org.delicias.common.dto.product.ProductPriceDTO;
+import org.delicias.gateway.ProductGateway;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductCatalogCacheTest {
+
+    // Ids of each call that reached the products service
+    private final List<Set<Integer>> requested = new ArrayList<>();
+
+    private final AtomicBoolean lastKnown = new AtomicBoolean();
+
+    // Ids of each load checked for changed prices
+    private final List<Set<Integer>> checked = new ArrayList<>();
+
+    private ProductCatalogCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ProductCatalogCache() {
+            @Override
+            void checkReloaded(List<ProductPriceDTO> loaded) {
+                checked.add(loaded.stream().map(ProductPriceDTO::productTmplId).collect(Collectors.toSet()));
+            }
+        };
+        cache.productGateway = new ProductGateway() {
+            @Override
+            public Prices getPrices(Set<Integer> productTmplIds) {
+                requested.add(Set.copyOf(productTmplIds));
+                return new Prices(productTmplIds.stream().map(ProductCatalogCacheTest::price).toList(), lastKnown.get());
+            }
+        };
+        cache.maxSize = 100;
+        cache.ttl = Duration.ofMinutes(1);
+        cache.init();
+    }
+
+    @Test
+    void testOnlyMissingIdsAreLoaded() {
+
+        cache.getPrices(Set.of(1, 2));
+
+        ProductGateway.Prices prices = cache.getPrices(Set.of(1, 2, 3, 4));
+
+        assertEquals(List.of(Set.of(1, 2), Set.of(3, 4)), requested);
+        assertEquals(4, prices.prices().size());
+        assertFalse(prices.lastKnown());
+
+        cache.getPrices(Set.of(1, 2, 3, 4));
+        assertEquals(2, requested.size());
+        assertEquals(requested, checked);
+    }
+
+    @Test
+    void testLastKnownPricesAreNotCached() {
+
+        lastKnown.set(true);
+        assertTrue(cache.getPrices(Set.of(1)).lastKnown());
+
+        lastKnown.set(false);
+        assertFalse(cache.getPrices(Set.of(1)).lastKnown());
+
+        assertEquals(List.of(Set.of(1), Set.of(1)), requested);
+
+        // Last-known prices say nothing about the current ones
+        assertEquals(List.of(Set.of(1)), checked);
+    }
+
+    @Test
+    void testPartialInvalidationKeepsOtherProducts() {
+
+        cache.getPrices(Set.of(1, 2));
+
+        cache.onInvalidation("1:1");
+        cache.getPrices(Set.of(1, 2));
+
+        assertEquals(List.of(Set.of(1, 2), Set.of(1)), requested);
+        assertEquals(1, cache.version());
+    }
+
+    @Test
+    void testMissedVersionInvalidatesTheWholeCatalog() {
+
+        cache.getPrices(Set.of(1, 2));
+
+        // Version 1 never arrived and may have invalidated every product
+        cache.onInvalidation("2:1");
+        cache.getPrices(Set.of(1, 2));
+
+        assertEquals(List.of(Set.of(1, 2), Set.of(1, 2)), requested);
+        assertEquals(2, cache.version());
+
+        // Versions already applied are skipped
+        cache.onInvalidation("2");
+        cache.getPrices(Set.of(1, 2));
+        assertEquals(2, requested.size());
+    }
+
+    private static ProductPriceDTO price(Integer id) {
+        return ProductPriceDTO.builder()
+                .productTmplId(id)
+                .name("Product " + id)
+                .listPrice(new BigDecimal("10.00"))
+                .attributes(List.of())
+                .build();
+    }
+}
@@ -0,0 +1,102 @@
+package org.delicias.gateway;
+
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+@QuarkusTestResource(WireMockServices.class)
+class GatewayResilienceTest {
+
+    private static final String PRICES = """
+            [{"productTmplId": 7, "name": "Tacos", "listPrice": 95.00, "attributes": []}]
+            """;
+
+    @Inject
+    ProductGateway productGateway;
+
+    @Inject
+    UserGateway userGateway;
+
+    @Inject
+    MeterRegistry registry;
+
+    @BeforeEach
+    void reset() {
+        WireMockServices.server.resetAll();
+    }
+
+    @Test
+    void testLastKnownPricesWhenProductsFail() {
+
+        WireMockServices.server.stubFor(any(anyUrl()).willReturn(okJson(PRICES)));
+
+        assertFalse(productGateway.getPrices(Set.of(7)).lastKnown());
+
+        WireMockServices.server.stubFor(any(anyUrl()).willReturn(serverError()));
+
+        ProductGateway.Prices prices = productGateway.getPrices(Set.of(7));
+
+        assertTrue(prices.lastKnown());
+        assertEquals(1, prices.prices().size());
+        assertEquals("Tacos", prices.prices().get(0).name());
+    }
+
+    @Test
+    void testHedgedPriceRequestWins() {
+
+        WireMockServices.server.stubFor(any(anyUrl())
+                .inScenario("hedge")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(okJson(PRICES).withFixedDelay(2000))
+                .willSetStateTo("hedged"));
+
+        WireMockServices.server.stubFor(any(anyUrl())
+                .inScenario("hedge")
+                .whenScenarioStateIs("hedged")
+                .willReturn(okJson(PRICES)));
+
+        long start = System.nanoTime();
+
+        assertEquals(1, productGateway.getPrices(Set.of(7)).prices().size());
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 1500, "hedged request answered after " + elapsedMillis + " ms");
+        WireMockServices.server.verify(2, anyRequestedFor(anyUrl()));
+    }
+
+    @Test
+    void testClientCallsAreTimedPerOperation() {
+
+        WireMockServices.server.stubFor(any(anyUrl()).willReturn(okJson(PRICES)));
+
+        productGateway.getPrices(Set.of(7));
+
+        Timer timer = registry.find("delicias.client")
+                .tags("class", "ProductGateway", "method", "getProductTmplPrices")
+                .timer();
+
+        assertNotNull(timer);
+        assertTrue(timer.count() > 0);
+    }
+
+    @Test
+    void testUserAddressUnavailable() {
+
+        WireMockServices.server.stubFor(any(anyUrl()).willReturn(serverError()));
+
+        assertTrue(userGateway.getUserAddressDefault().isEmpty());
+        assertTrue(userGateway.getUserAddress(3).isEmpty());
+    }
+}
@@ -0,0 +1,40 @@
+package org.delicias.gateway;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.quarkus.test.common.QuarkusTestResourceLifecycleManager;
+
+import java.util.Map;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+
+/**
+ * Points the users, products and restaurants clients to one WireMock server, with
+ * hedged price requests enabled and a timeout long enough to let the hedge win.
+ */
+public class WireMockServices implements QuarkusTestResourceLifecycleManager {
+
+    static WireMockServer server;
+
+    @Override
+    public Map<String, String> start() {
+
+        server = new WireMockServer(wireMockConfig().dynamicPort());
+        server.start();
+
+        return Map.of(
+                "quarkus.rest-client.users-service.url", server.baseUrl(),
+                "quarkus.rest-client.products-service.url", server.baseUrl(),
+                "quarkus.rest-client.restaurants-service.url", server.baseUrl(),
+                "org.delicias.gateway.ProductGateway/Timeout/value", "3000",
+                "delicias.gateway.products.hedge.enabled", "true",
+                "delicias.gateway.products.hedge.delay", "PT0.1S"
+        );
+    }
+
+    @Override
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+}
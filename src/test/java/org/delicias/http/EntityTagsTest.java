@@ -0,0 +1,47 @@
+package org.delicias.http;
+
+import jakarta.ws.rs.BadRequestException;
+import org.delicias.exception.ShoppingBusinessException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityTagsTest {
+
+    @Test
+    void testExpectedVersion() {
+        assertEquals(7L, EntityTags.expectedVersion("\"7\""));
+        assertEquals(7L, EntityTags.expectedVersion("7"));
+        assertEquals(7L, EntityTags.expectedVersion("\"7-17\""));
+        assertNull(EntityTags.expectedVersion(null));
+        assertNull(EntityTags.expectedVersion("*"));
+    }
+
+    @Test
+    void testRejectsWeakOrMalformedTags() {
+        assertThrows(BadRequestException.class, () -> EntityTags.expectedVersion("W/\"7\""));
+        assertThrows(BadRequestException.class, () -> EntityTags.expectedVersion("\"abc\""));
+    }
+
+    @Test
+    void testMatchesAny() {
+        var current = EntityTags.of(7, 100);
+
+        assertTrue(EntityTags.matchesAny("\"7-100\"", current));
+        assertTrue(EntityTags.matchesAny("\"6-100\", W/\"7-100\"", current));
+        assertTrue(EntityTags.matchesAny("*", current));
+        assertFalse(EntityTags.matchesAny("\"7-101\"", current));
+        assertFalse(EntityTags.matchesAny(null, current));
+    }
+
+    @Test
+    void testCheckVersion() {
+        assertDoesNotThrow(() -> EntityTags.checkVersion(null, 3));
+        assertDoesNotThrow(() -> EntityTags.checkVersion(3L, 3));
+
+        ShoppingBusinessException e = assertThrows(ShoppingBusinessException.class,
+                () -> EntityTags.checkVersion(2L, 3));
+
+        assertEquals(412, e.getStatus());
+    }
+}
@@ -0,0 +1,377 @@
+package org.delicias.line.service;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.OptimisticLockException;
+import org.delicias.exception.ShoppingBusinessException;
+import org.delicias.line.domain.model.ShoppingCartLine;
+import org.delicias.line.domain.repository.ShoppingCartLineRepository;
+import org.delicias.line.dto.BatchShoppingCartLineDTO;
+import org.delicias.persistence.RetryOnConflict;
+import org.delicias.shoppingcart.domain.repository.ShoppingCartRepository;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+class ShoppingCartLineServiceTest {
+
+    private static final int RESTAURANT = 1;
+
+    @Inject
+    ShoppingCartLineService lineService;
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    @Inject
+    ShoppingCartLineRepository lineRepository;
+
+    @Inject
+    ConflictingWrite conflictingWrite;
+
+    @Inject
+    EntityManager em;
+
+    @ApplicationScoped
+    static class ConflictingWrite {
+
+        final AtomicInteger attempts = new AtomicInteger();
+
+        @RetryOnConflict
+        void run() {
+            attempts.incrementAndGet();
+            throw new OptimisticLockException("Always stale");
+        }
+    }
+
+    @Test
+    void testStaleIfMatchIsRejected() {
+
+        UUID user = UUID.randomUUID();
+        UUID cartId = insertCart(user, 1);
+        UUID lineId = insertLine(cartId, 1);
+
+        ShoppingBusinessException e = assertThrows(ShoppingBusinessException.class,
+                () -> lineService.applyBatch(user, updateQty(lineId, 3), 5L));
+
+        assertEquals(412, e.getStatus());
+        assertEquals(0L, cartVersion(cartId));
+    }
+
+    @Test
+    void testIfMatchHoldsAgainstAWriteCommittedMidBatch() throws Exception {
+
+        UUID user = UUID.randomUUID();
+        UUID cartId = insertCart(user, 1);
+        UUID lineId = insertLine(cartId, 1);
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Another write bumps the cart while the batch runs against the version it read
+        CompletableFuture<Void> concurrentWrite = CompletableFuture.runAsync(() ->
+                QuarkusTransaction.requiringNew().run(() -> {
+                    cartRepository.touch(cartId, 0);
+                    locked.countDown();
+                    await(release);
+                })
+        );
+
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<?> batch = CompletableFuture.supplyAsync(
+                () -> lineService.applyBatch(user, updateQty(lineId, 3), 0L)
+        );
+
+        // Give the batch time to read version 0 and block on the cart row
+        Thread.sleep(300);
+        release.countDown();
+        concurrentWrite.get(5, TimeUnit.SECONDS);
+
+        CompletionException e = assertThrows(CompletionException.class, batch::join);
+
+        assertInstanceOf(ShoppingBusinessException.class, e.getCause());
+        assertEquals(412, ((ShoppingBusinessException) e.getCause()).getStatus());
+        assertEquals(1L, cartVersion(cartId));
+        assertEquals(1L, count("SELECT COUNT(*) FROM shopping_cart_line WHERE id = ?1 AND qty = 1", lineId));
+    }
+
+    @Test
+    void testConflictsAnswer409OnceRetriesRunOut() {
+
+        conflictingWrite.attempts.set(0);
+
+        ShoppingBusinessException e = assertThrows(ShoppingBusinessException.class, conflictingWrite::run);
+
+        assertEquals(409, e.getStatus());
+        assertEquals(3, conflictingWrite.attempts.get());
+    }
+
+    @Test
+    void testRemovingTheLastLineWaitsForAConcurrentAdd() throws Exception {
+
+        UUID user = UUID.randomUUID();
+        UUID cartId = insertCart(user, 1);
+        UUID lastLine = insertLine(cartId, 1);
+
+        CountDownLatch added = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> add = CompletableFuture.runAsync(() ->
+                QuarkusTransaction.requiringNew().run(() -> {
+                    ShoppingCartLineRepository.UpsertResult upsert =
+                            lineRepository.upsert(cartId, 2, (short) 1, null).orElseThrow();
+                    cartRepository.touch(cartId, upsert.inserted() ? 1 : 0);
+                    added.countDown();
+                    await(release);
+                })
+        );
+
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> delete = CompletableFuture.runAsync(() -> lineService.deleteById(lastLine, null));
+
+        Thread.sleep(300);
+        release.countDown();
+
+        add.get(5, TimeUnit.SECONDS);
+        delete.get(5, TimeUnit.SECONDS);
+
+        // The add committed first, so the cart keeps the new line
+        assertEquals(1L, count("SELECT line_count FROM shopping_cart WHERE id = ?1", cartId));
+        assertEquals(1L, count("SELECT COUNT(*) FROM shopping_cart_line WHERE shopping_cart_uuid = ?1", cartId));
+    }
+
+    @Test
+    void testAddingToACartWhoseLastLineWasRemovedConflicts() throws Exception {
+
+        UUID user = UUID.randomUUID();
+        UUID cartId = insertCart(user, 1);
+        UUID lastLine = insertLine(cartId, 1);
+
+        CountDownLatch removed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> delete = CompletableFuture.runAsync(() ->
+                QuarkusTransaction.requiringNew().run(() -> {
+                    lineRepository.remove(lastLine, null).orElseThrow();
+                    assertTrue(cartRepository.removeLine(cartId, null).isEmpty());
+                    removed.countDown();
+                    await(release);
+                })
+        );
+
+        assertTrue(removed.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> add = CompletableFuture.runAsync(() ->
+                QuarkusTransaction.requiringNew().run(() -> lineRepository.upsert(cartId, 2, (short) 1, null))
+        );
+
+        Thread.sleep(300);
+        release.countDown();
+        delete.get(5, TimeUnit.SECONDS);
+
+        // The add is retried by the service against a fresh cart, never left as an orphan line
+        CompletionException e = assertThrows(CompletionException.class, add::join);
+
+        assertInstanceOf(OptimisticLockException.class, e.getCause());
+        assertEquals(0L, count("SELECT COUNT(*) FROM shopping_cart WHERE id = ?1", cartId));
+        assertEquals(0L, count("SELECT COUNT(*) FROM shopping_cart_line WHERE shopping_cart_uuid = ?1", cartId));
+    }
+
+    @Test
+    void testConcurrentAddsMergeIntoOneLine() throws Exception {
+
+        UUID user = UUID.randomUUID();
+        UUID cartId = insertCart(user, 0);
+
+        CountDownLatch added = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<ShoppingCartLineRepository.UpsertResult> first = CompletableFuture.supplyAsync(() ->
+                QuarkusTransaction.requiringNew().call(() -> {
+                    ShoppingCartLineRepository.UpsertResult upsert =
+                            lineRepository.upsert(cartId, 5, (short) 2, Set.of(3)).orElseThrow();
+                    added.countDown();
+                    await(release);
+                    return upsert;
+                })
+        );
+
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+
+        // Waits on the unique index for the first add, then merges into its line
+        CompletableFuture<ShoppingCartLineRepository.UpsertResult> second = CompletableFuture.supplyAsync(() ->
+                QuarkusTransaction.requiringNew().call(() ->
+                        lineRepository.upsert(cartId, 5, (short) 3, Set.of(3)).orElseThrow()
+                )
+        );
+
+        Thread.sleep(300);
+        release.countDown();
+
+        ShoppingCartLineRepository.UpsertResult inserted = first.get(5, TimeUnit.SECONDS);
+        ShoppingCartLineRepository.UpsertResult merged = second.get(5, TimeUnit.SECONDS);
+
+        assertTrue(inserted.inserted());
+        assertFalse(merged.inserted());
+        assertEquals(inserted.id(), merged.id());
+        assertEquals(5, merged.qty());
+        assertEquals(1L, count("SELECT COUNT(*) FROM shopping_cart_line WHERE shopping_cart_uuid = ?1", cartId));
+    }
+
+    @Test
+    void testChangingAttributesIntoAConcurrentAddConflicts() throws Exception {
+
+        UUID user = UUID.randomUUID();
+        UUID cartId = insertCart(user, 1);
+        UUID lineId = insertLine(cartId, 5);
+
+        CountDownLatch added = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> add = CompletableFuture.runAsync(() ->
+                QuarkusTransaction.requiringNew().run(() -> {
+                    lineRepository.upsert(cartId, 5, (short) 1, Set.of(3)).orElseThrow();
+                    added.countDown();
+                    await(release);
+                })
+        );
+
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+
+        // The edit found no line with the new attributes, the add inserts one before it flushes
+        CompletableFuture<Void> edit = CompletableFuture.runAsync(() ->
+                QuarkusTransaction.requiringNew().run(() -> {
+                    ShoppingCartLine line = lineRepository.findById(lineId);
+                    line.updateQty((short) 2, Set.of(3));
+                    lineRepository.flushLines();
+                })
+        );
+
+        Thread.sleep(300);
+        release.countDown();
+        add.get(5, TimeUnit.SECONDS);
+
+        // Retried by @RetryOnConflict, the edit then merges into the added line
+        CompletionException e = assertThrows(CompletionException.class, edit::join);
+
+        assertInstanceOf(OptimisticLockException.class, e.getCause());
+        assertEquals(2L, count("SELECT COUNT(*) FROM shopping_cart_line WHERE shopping_cart_uuid = ?1", cartId));
+    }
+
+    @Test
+    void testStoringTotalsDoesNotWaitForALineEdit() throws Exception {
+
+        UUID user = UUID.randomUUID();
+        UUID cartId = insertCart(user, 1);
+        UUID lineId = insertLine(cartId, 1);
+
+        CountDownLatch edited = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // A line edit locks the line first and the cart last
+        CompletableFuture<Void> edit = CompletableFuture.runAsync(() ->
+                QuarkusTransaction.requiringNew().run(() -> {
+                    lineRepository.upsert(cartId, 1, (short) 1, null).orElseThrow();
+                    edited.countDown();
+                    await(release);
+                    cartRepository.touch(cartId, 0);
+                })
+        );
+
+        assertTrue(edited.await(5, TimeUnit.SECONDS));
+
+        Map<UUID, ShoppingCartRepository.LineTotal> totals =
+                Map.of(lineId, new ShoppingCartRepository.LineTotal(new BigDecimal("9.00"), 42L));
+
+        // A read storing the totals it priced gives up instead of holding the cart row
+        CompletableFuture<Boolean> read = CompletableFuture.supplyAsync(() ->
+                QuarkusTransaction.requiringNew().call(() -> cartRepository.storeTotals(cartId, 0L, new BigDecimal("9.00"), totals))
+        );
+
+        assertFalse(read.get(5, TimeUnit.SECONDS));
+
+        release.countDown();
+        edit.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1L, cartVersion(cartId));
+        assertEquals(2L, count("SELECT qty FROM shopping_cart_line WHERE id = ?1", lineId));
+        assertTrue(QuarkusTransaction.requiringNew().call(() ->
+                cartRepository.storeTotals(cartId, 1L, new BigDecimal("18.00"), totals)
+        ));
+    }
+
+    private static BatchShoppingCartLineDTO updateQty(UUID lineId, int qty) {
+        return new BatchShoppingCartLineDTO(RESTAURANT, List.of(
+                new BatchShoppingCartLineDTO.Operation(BatchShoppingCartLineDTO.Type.UPDATE, lineId, null, (short) qty, null)
+        ));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private UUID insertCart(UUID user, int lineCount) {
+
+        UUID cartId = UUID.randomUUID();
+
+        QuarkusTransaction.requiringNew().run(() -> em.createNativeQuery("""
+                INSERT INTO shopping_cart (id, user_uuid, restaurant_tmpl_id, line_count)
+                VALUES (?1, ?2, ?3, ?4)
+                """)
+                .setParameter(1, cartId)
+                .setParameter(2, user)
+                .setParameter(3, RESTAURANT)
+                .setParameter(4, lineCount)
+                .executeUpdate());
+
+        return cartId;
+    }
+
+    private UUID insertLine(UUID cartId, int productTmplId) {
+
+        UUID lineId = UUID.randomUUID();
+
+        QuarkusTransaction.requiringNew().run(() -> em.createNativeQuery("""
+                INSERT INTO shopping_cart_line (id, shopping_cart_uuid, product_tmpl_id, qty, attr_key)
+                VALUES (?1, ?2, ?3, 1, '')
+                """)
+                .setParameter(1, lineId)
+                .setParameter(2, cartId)
+                .setParameter(3, productTmplId)
+                .executeUpdate());
+
+        return lineId;
+    }
+
+    private long cartVersion(UUID cartId) {
+        return count("SELECT version FROM shopping_cart WHERE id = ?1", cartId);
+    }
+
+    private long count(String sql, UUID id) {
+        return QuarkusTransaction.requiringNew().call(() ->
+                ((Number) em.createNativeQuery(sql).setParameter(1, id).getSingleResult()).longValue()
+        );
+    }
+}
@@ -0,0 +1,100 @@
+package org.delicias.outbox.service;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import org.delicias.outbox.dto.CartEventMessage;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+@TestProfile(CartOutboxRelayTest.ManualRelay.class)
+class CartOutboxRelayTest {
+
+    public static class ManualRelay implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("delicias.outbox.relay.every", "off", "delicias.outbox.relay.batch-size", "2");
+        }
+    }
+
+    @Inject
+    Event<CartChangedEvent> cartChanged;
+
+    @Inject
+    CartOutboxRelay relay;
+
+    @Inject
+    InMemoryCartEventSink sink;
+
+    @BeforeEach
+    void drain() {
+        sink.failing = false;
+        relay.relay();
+        sink.received.clear();
+    }
+
+    @Test
+    void testEventsArePublishedOncePerCartInOrder() {
+
+        UUID cartId = UUID.randomUUID();
+        UUID lineId = UUID.randomUUID();
+
+        QuarkusTransaction.requiringNew().run(() -> {
+            cartChanged.fire(new CartChangedEvent(cartId, 1, CartChangedEvent.Type.LINE_ADDED, lineId));
+            cartChanged.fire(new CartChangedEvent(cartId, 2, CartChangedEvent.Type.LINE_UPDATED, lineId));
+        });
+        QuarkusTransaction.requiringNew().run(() -> cartChanged.fire(CartChangedEvent.deleted(cartId)));
+
+        assertEquals(3, relay.relay());
+        assertEquals(0, relay.relay());
+
+        List<CartEventMessage> events = sink.received;
+
+        assertEquals(
+                List.of(CartChangedEvent.Type.LINE_ADDED, CartChangedEvent.Type.LINE_UPDATED, CartChangedEvent.Type.CART_DELETED),
+                events.stream().map(CartEventMessage::type).toList()
+        );
+        assertEquals(2L, events.get(1).version());
+        assertNull(events.get(2).version());
+        assertTrue(events.get(0).id() < events.get(1).id() && events.get(1).id() < events.get(2).id());
+    }
+
+    @Test
+    void testRolledBackChangeWritesNoEvent() {
+
+        assertThrows(RuntimeException.class, () -> QuarkusTransaction.requiringNew().run(() -> {
+            cartChanged.fire(new CartChangedEvent(UUID.randomUUID(), 1, CartChangedEvent.Type.LINE_ADDED, null));
+            throw new IllegalStateException("rollback");
+        }));
+
+        assertEquals(0, relay.relay());
+    }
+
+    @Test
+    void testFailedBatchIsSentAgain() {
+
+        UUID cartId = UUID.randomUUID();
+
+        QuarkusTransaction.requiringNew().run(
+                () -> cartChanged.fire(new CartChangedEvent(cartId, 1, CartChangedEvent.Type.LINE_ADDED, null))
+        );
+
+        sink.failing = true;
+        assertThrows(RuntimeException.class, relay::relay);
+
+        sink.failing = false;
+        assertEquals(1, relay.relay());
+        assertEquals(cartId, sink.received.get(0).shoppingCartId());
+    }
+}
@@ -0,0 +1,30 @@
+package org.delicias.outbox.service;
+
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Alternative;
+import org.delicias.outbox.dto.CartEventMessage;
+import org.delicias.outbox.sink.CartEventSink;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@Alternative
+@Priority(1)
+@ApplicationScoped
+public class InMemoryCartEventSink implements CartEventSink {
+
+    final List<CartEventMessage> received = new CopyOnWriteArrayList<>();
+
+    volatile boolean failing;
+
+    @Override
+    public void publish(List<CartEventMessage> events) {
+
+        if (failing) {
+            throw new IllegalStateException("Sink unavailable");
+        }
+
+        received.addAll(events);
+    }
+}
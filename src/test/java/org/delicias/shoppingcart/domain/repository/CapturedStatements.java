@@ -0,0 +1,45 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import io.quarkus.hibernate.orm.PersistenceUnitExtension;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the SQL Hibernate sends to the database from the current thread, so tests can
+ * check the statements the repositories really run.
+ */
+@PersistenceUnitExtension
+@ApplicationScoped
+public class CapturedStatements implements StatementInspector {
+
+    private final ThreadLocal<List<String>> captured = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+
+        List<String> statements = captured.get();
+
+        if (statements != null) {
+            statements.add(sql);
+        }
+
+        return sql;
+    }
+
+    public List<String> during(Runnable work) {
+
+        List<String> statements = new ArrayList<>();
+        captured.set(statements);
+
+        try {
+            work.run();
+        } finally {
+            captured.remove();
+        }
+
+        return statements;
+    }
+}
@@ -0,0 +1,100 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import io.quarkus.test.TestTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.delicias.line.domain.repository.ShoppingCartLineRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+class CartRemovalTest {
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    @Inject
+    ShoppingCartLineRepository lineRepository;
+
+    @Inject
+    EntityManager em;
+
+    @Test
+    @TestTransaction
+    void testRemovingTheLastLineDeletesTheCart() {
+
+        UUID user = UUID.randomUUID();
+        UUID cartId = insertCart(user);
+        List<UUID> lines = List.of(insertLine(cartId, 1), insertLine(cartId, 2));
+
+        // A stale version removes nothing
+        assertEquals(Optional.empty(), lineRepository.remove(lines.get(0), 7L));
+
+        ShoppingCartLineRepository.RemovedLine removed = lineRepository.remove(lines.get(0), 0L).orElseThrow();
+        assertEquals(cartId, removed.shoppingCartId());
+
+        Optional<ShoppingCartRepository.Touch> touch = cartRepository.removeLine(cartId, null);
+        assertEquals(1, touch.orElseThrow().lineCount());
+
+        lineRepository.remove(lines.get(1), null).orElseThrow();
+
+        assertTrue(cartRepository.removeLine(cartId, null).isEmpty());
+        assertTrue(cartRepository.findVersion(cartId).isEmpty());
+    }
+
+    @Test
+    @TestTransaction
+    void testClearDeletesTheUsersCartWithItsLines() {
+
+        UUID user = UUID.randomUUID();
+        UUID cartId = insertCart(user);
+        insertLine(cartId, 1);
+        insertLine(cartId, 2);
+
+        assertEquals(-1, cartRepository.deleteWithLines(cartId, UUID.randomUUID(), null));
+        assertEquals(-1, cartRepository.deleteWithLines(cartId, user, 5L));
+
+        assertEquals(2, cartRepository.deleteWithLines(cartId, user, 0L));
+        assertTrue(cartRepository.findVersion(cartId).isEmpty());
+        assertEquals(0L, ((Number) em.createNativeQuery("SELECT COUNT(*) FROM shopping_cart_line WHERE shopping_cart_uuid = ?1")
+                .setParameter(1, cartId)
+                .getSingleResult()).longValue());
+    }
+
+    private UUID insertCart(UUID user) {
+
+        UUID cartId = UUID.randomUUID();
+
+        em.createNativeQuery("""
+                INSERT INTO shopping_cart (id, user_uuid, restaurant_tmpl_id, line_count)
+                VALUES (?1, ?2, 1, 2)
+                """)
+                .setParameter(1, cartId)
+                .setParameter(2, user)
+                .executeUpdate();
+
+        return cartId;
+    }
+
+    private UUID insertLine(UUID cartId, int productTmplId) {
+
+        UUID lineId = UUID.randomUUID();
+
+        em.createNativeQuery("""
+                INSERT INTO shopping_cart_line (id, shopping_cart_uuid, product_tmpl_id, qty)
+                VALUES (?1, ?2, ?3, 1)
+                """)
+                .setParameter(1, lineId)
+                .setParameter(2, cartId)
+                .setParameter(3, productTmplId)
+                .executeUpdate();
+
+        return lineId;
+    }
+}
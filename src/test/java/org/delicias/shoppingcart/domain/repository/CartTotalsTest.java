@@ -0,0 +1,145 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import io.quarkus.test.TestTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+class CartTotalsTest {
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    @Inject
+    EntityManager em;
+
+    @Test
+    @TestTransaction
+    void testFirstPricedLineStartsTheSubtotal() {
+
+        UUID cartId = insertCart(0, null);
+
+        cartRepository.touch(cartId, 1, change("12.50"));
+
+        assertEquals(new BigDecimal("12.50"), subtotal(cartId));
+    }
+
+    @Test
+    @TestTransaction
+    void testPricedChangesMoveTheStoredSubtotal() {
+
+        UUID cartId = insertCart(2, "20.00");
+
+        cartRepository.touch(cartId, 1, change("5.00"));
+        assertEquals(new BigDecimal("25.00"), subtotal(cartId));
+
+        cartRepository.touch(cartId, 0, change("-7.50"));
+        assertEquals(new BigDecimal("17.50"), subtotal(cartId));
+
+        assertTrue(cartRepository.removeLine(cartId, change("-7.50")).isPresent());
+        assertEquals(new BigDecimal("10.00"), subtotal(cartId));
+    }
+
+    @Test
+    @TestTransaction
+    void testUnpricedChangeClearsTheSubtotal() {
+
+        UUID cartId = insertCart(2, "20.00");
+
+        cartRepository.touch(cartId, 0, null);
+
+        assertNull(subtotal(cartId));
+    }
+
+    @Test
+    @TestTransaction
+    void testUnpricedCartStaysUnpriced() {
+
+        UUID cartId = insertCart(2, null);
+
+        // Only a full reprice can tell the totals of the lines that were never priced
+        cartRepository.touch(cartId, 1, change("5.00"));
+
+        assertNull(subtotal(cartId));
+    }
+
+    @Test
+    @TestTransaction
+    void testTotalsAreStoredOnlyAtTheExpectedVersion() {
+
+        UUID cartId = insertCart(1, null);
+        UUID lineId = insertLine(cartId);
+
+        Map<UUID, ShoppingCartRepository.LineTotal> totals =
+                Map.of(lineId, new ShoppingCartRepository.LineTotal(new BigDecimal("9.00"), 42L));
+
+        assertFalse(cartRepository.storeTotals(cartId, 3L, new BigDecimal("9.00"), totals));
+        assertNull(subtotal(cartId));
+
+        assertTrue(cartRepository.storeTotals(cartId, 0L, new BigDecimal("9.00"), totals));
+        assertEquals(new BigDecimal("9.00"), subtotal(cartId));
+
+        Object[] line = (Object[]) em.createNativeQuery("SELECT price_total, price_fingerprint FROM shopping_cart_line WHERE id = ?1")
+                .setParameter(1, lineId)
+                .getSingleResult();
+
+        assertEquals(new BigDecimal("9.00"), line[0]);
+        assertEquals(42L, ((Number) line[1]).longValue());
+    }
+
+    private static ShoppingCartRepository.SubtotalChange change(String delta) {
+        return new ShoppingCartRepository.SubtotalChange(new BigDecimal(delta));
+    }
+
+    private BigDecimal subtotal(UUID cartId) {
+        return (BigDecimal) em.createNativeQuery("SELECT subtotal FROM shopping_cart WHERE id = ?1")
+                .setParameter(1, cartId)
+                .getSingleResult();
+    }
+
+    private UUID insertCart(int lineCount, String subtotal) {
+
+        UUID cartId = UUID.randomUUID();
+
+        em.createNativeQuery("""
+                INSERT INTO shopping_cart (id, user_uuid, restaurant_tmpl_id, line_count)
+                VALUES (?1, ?2, 1, ?3)
+                """)
+                .setParameter(1, cartId)
+                .setParameter(2, UUID.randomUUID())
+                .setParameter(3, lineCount)
+                .executeUpdate();
+
+        if (subtotal != null) {
+            em.createNativeQuery("UPDATE shopping_cart SET subtotal = ?1 WHERE id = ?2")
+                    .setParameter(1, new BigDecimal(subtotal))
+                    .setParameter(2, cartId)
+                    .executeUpdate();
+        }
+
+        return cartId;
+    }
+
+    private UUID insertLine(UUID cartId) {
+
+        UUID lineId = UUID.randomUUID();
+
+        em.createNativeQuery("""
+                INSERT INTO shopping_cart_line (id, shopping_cart_uuid, product_tmpl_id, qty)
+                VALUES (?1, ?2, 1, 1)
+                """)
+                .setParameter(1, lineId)
+                .setParameter(2, cartId)
+                .executeUpdate();
+
+        return lineId;
+    }
+}
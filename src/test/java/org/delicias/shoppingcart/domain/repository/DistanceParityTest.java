@@ -0,0 +1,48 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the in-JVM geodesic distance with PostGIS on the configured datasource.
+ */
+@QuarkusTest
+class DistanceParityTest {
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    @Test
+    @Transactional
+    void testGeodesicMatchesPostgis() {
+
+        Random random = new Random(42);
+
+        for (int i = 0; i < 500; i++) {
+
+            // Delivery-sized distances around Mexico City, up to ~30 km
+            double addressLng = -99.1332 + (random.nextDouble() - 0.5) * 0.5;
+            double addressLat = 19.4326 + (random.nextDouble() - 0.5) * 0.5;
+            double restaurantLng = -99.1332 + (random.nextDouble() - 0.5) * 0.5;
+            double restaurantLat = 19.4326 + (random.nextDouble() - 0.5) * 0.5;
+
+            int postgis = cartRepository.getDistance(addressLng, addressLat, restaurantLng, restaurantLat);
+
+            int geodesic = (int) Math.ceil(GeodesicDistance.meters(
+                    new Coordinate(addressLng, addressLat),
+                    new Coordinate(restaurantLng, restaurantLat)
+            ));
+
+            // Both round up, so they may only disagree when the exact distance sits on a meter boundary
+            assertTrue(Math.abs(postgis - geodesic) <= 1,
+                    "postgis=" + postgis + " geodesic=" + geodesic + " at iteration " + i);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GeodesicDistanceTest {
+
+    @Test
+    void testVincentyReferenceLine() {
+        // Flinders Peak -> Buninyong, Vincenty (1975): 54972.271 m
+        Coordinate flindersPeak = new Coordinate(dms(144, 25, 29.52440), -dms(37, 57, 3.72030));
+        Coordinate buninyong = new Coordinate(dms(143, 55, 35.38390), -dms(37, 39, 10.15610));
+
+        assertEquals(54972.271, GeodesicDistance.meters(flindersPeak, buninyong), 0.001);
+    }
+
+    @Test
+    void testCoincidentPoints() {
+        Coordinate point = new Coordinate(-99.1332, 19.4326);
+
+        assertEquals(0, GeodesicDistance.meters(point, point));
+    }
+
+    @Test
+    void testSymmetric() {
+        Coordinate zocalo = new Coordinate(-99.1332, 19.4326);
+        Coordinate roma = new Coordinate(-99.1677, 19.4270);
+
+        assertEquals(
+                GeodesicDistance.meters(zocalo, roma),
+                GeodesicDistance.meters(roma, zocalo),
+                1e-6
+        );
+    }
+
+    @Test
+    void testNearlyAntipodalFallsBackToSphere() {
+        Coordinate from = new Coordinate(0, 0);
+        Coordinate to = new Coordinate(179.7, 0.5);
+
+        assertEquals(
+                GeodesicDistance.haversine(from, to),
+                GeodesicDistance.meters(from, to),
+                GeodesicDistance.haversine(from, to) * 0.005
+        );
+    }
+
+    private static double dms(int degrees, int minutes, double seconds) {
+        return degrees + minutes / 60d + seconds / 3600d;
+    }
+}
@@ -0,0 +1,185 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.test.TestTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.delicias.line.domain.repository.ShoppingCartLineRepository;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Seeds the cart tables, calls the repository methods, runs EXPLAIN on every statement
+ * they sent and fails when one of them falls back to a sequential scan on a large table.
+ */
+@QuarkusTest
+class QueryPlanRegressionTest {
+
+    private static final int CARTS = 5000;
+    private static final int LINES_PER_CART = 4;
+
+    // Sequential scans are fine on tables smaller than this
+    private static final double SEQ_SCAN_ROW_THRESHOLD = 1000;
+
+    @Inject
+    ShoppingCartRepository cartRepository;
+
+    @Inject
+    ShoppingCartLineRepository lineRepository;
+
+    @Inject
+    CapturedStatements capturedStatements;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @Test
+    @TestTransaction
+    void testRepositoryQueriesUseIndexes() throws Exception {
+
+        seed();
+
+        Object[] header = sample("SELECT id, user_uuid, restaurant_tmpl_id FROM shopping_cart LIMIT 1");
+        UUID lineId = (UUID) sample("SELECT id FROM shopping_cart_line LIMIT 1")[0];
+
+        UUID cartId = (UUID) header[0];
+        UUID userUUID = (UUID) header[1];
+        Integer restaurantTmplId = ((Number) header[2]).intValue();
+
+        Map<String, Runnable> queries = new LinkedHashMap<>();
+        queries.put("ShoppingCartRepository.findById", () -> cartRepository.findById(cartId));
+        queries.put("ShoppingCartRepository.findViewById", () -> cartRepository.findViewById(cartId));
+        queries.put("ShoppingCartRepository.findByUser", () -> cartRepository.findByUser(userUUID));
+        queries.put("ShoppingCartRepository.findByUserAndRestaurant",
+                () -> cartRepository.findByUserAndRestaurant(userUUID, restaurantTmplId));
+        queries.put("ShoppingCartRepository.findVersion", () -> cartRepository.findVersion(cartId));
+        queries.put("ShoppingCartLineRepository.findById", () -> lineRepository.findById(lineId));
+        queries.put("ShoppingCartLineRepository.getByShoppingCart", () -> lineRepository.getByShoppingCart(cartId));
+        queries.put("ShoppingCartRepository.deleteIdle", () -> cartRepository.deleteIdle(
+                Instant.now().minus(Duration.ofDays(30)), ShoppingCartRepository.ReaperCursor.START, 500
+        ));
+        // Last: it deletes the sampled cart
+        queries.put("ShoppingCartRepository.deleteWithLines", () -> cartRepository.deleteWithLines(cartId, userUUID, null));
+
+        List<String> failures = new ArrayList<>();
+
+        for (Map.Entry<String, Runnable> query : queries.entrySet()) {
+
+            // Nothing may be served from the persistence context
+            em.clear();
+
+            List<String> statements = capturedStatements.during(query.getValue());
+
+            if (statements.isEmpty()) {
+                failures.add(query.getKey() + ": no statement reached the database");
+            }
+
+            for (String sql : statements) {
+                collectSeqScans(explain(sql).get(0).get("Plan"), query.getKey(), failures);
+            }
+        }
+
+        assertTrue(failures.isEmpty(), String.join("\n", failures));
+    }
+
+    private void seed() {
+
+        em.createNativeQuery("""
+                INSERT INTO shopping_cart (id, user_uuid, restaurant_tmpl_id, line_count)
+                SELECT uuid_generate_v4(), uuid_generate_v4(), g, 0
+                FROM generate_series(1, :carts) g
+                """)
+                .setParameter("carts", CARTS)
+                .executeUpdate();
+
+        em.createNativeQuery("""
+                INSERT INTO shopping_cart_line (id, shopping_cart_uuid, product_tmpl_id, qty)
+                SELECT uuid_generate_v4(), c.id, g, 1
+                FROM shopping_cart c, generate_series(1, :lines) g
+                """)
+                .setParameter("lines", LINES_PER_CART)
+                .executeUpdate();
+
+        em.createNativeQuery("ANALYZE shopping_cart").executeUpdate();
+        em.createNativeQuery("ANALYZE shopping_cart_line").executeUpdate();
+    }
+
+    private Object[] sample(String sql) {
+        Object row = em.createNativeQuery(sql).getResultList().get(0);
+        return row instanceof Object[] array ? array : new Object[] { row };
+    }
+
+    /**
+     * Plans the statement as sent by Hibernate. Its JDBC placeholders become parameters of
+     * a prepared statement planned generically, so the plan holds for any bound value.
+     */
+    private JsonNode explain(String sql) throws Exception {
+
+        Matcher placeholders = Pattern.compile("\\?").matcher(sql);
+        StringBuilder prepared = new StringBuilder();
+        List<String> nulls = new ArrayList<>();
+
+        while (placeholders.find()) {
+            nulls.add("NULL");
+            placeholders.appendReplacement(prepared, "\\$" + nulls.size());
+        }
+
+        placeholders.appendTail(prepared);
+
+        String plan = em.unwrap(Session.class).doReturningWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+
+                statement.execute("SET LOCAL plan_cache_mode = force_generic_plan");
+                statement.execute("PREPARE plan_check AS " + prepared);
+
+                try (ResultSet result = statement.executeQuery("EXPLAIN (FORMAT JSON) EXECUTE plan_check"
+                        + (nulls.isEmpty() ? "" : "(" + String.join(", ", nulls) + ")"))) {
+                    result.next();
+                    return result.getString(1);
+                } finally {
+                    statement.execute("DEALLOCATE plan_check");
+                }
+            }
+        });
+
+        return mapper.readTree(plan);
+    }
+
+    private void collectSeqScans(JsonNode node, String query, List<String> failures) {
+
+        if ("Seq Scan".equals(node.path("Node Type").asText())) {
+
+            String relation = node.path("Relation Name").asText();
+            double tableRows = ((Number) em.createNativeQuery("SELECT reltuples FROM pg_class WHERE relname = ?1")
+                    .setParameter(1, relation)
+                    .getSingleResult()).doubleValue();
+
+            if (tableRows > SEQ_SCAN_ROW_THRESHOLD) {
+                failures.add(query + ": sequential scan on " + relation + " (" + (long) tableRows + " rows)");
+            }
+        }
+
+        for (JsonNode child : node.path("Plans")) {
+            collectSeqScans(child, query, failures);
+        }
+    }
+}
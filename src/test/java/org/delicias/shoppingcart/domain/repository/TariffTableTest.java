@@ -0,0 +1,80 @@
+package org.delicias.shoppingcart.domain.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class TariffTableTest {
+
+    private static final TariffTable DEFAULT_TARIFF = TariffTable.of(
+            new BigDecimal("30.00"), 2000, 1000, new BigDecimal("5.00"), List.of()
+    );
+
+    @Test
+    void testParityWithLegacyLoop() {
+        // Covers the precomputed buckets and the closed form beyond them
+        for (int distance = 0; distance <= 400_000; distance++) {
+            assertEquals(0,
+                    BigDecimal.valueOf(legacyCalculate(distance)).compareTo(DEFAULT_TARIFF.fee(distance)),
+                    "distance " + distance
+            );
+        }
+    }
+
+    @Test
+    void testStepBoundaries() {
+        assertEquals(new BigDecimal("30.00"), DEFAULT_TARIFF.fee(2000));
+        assertEquals(new BigDecimal("35.00"), DEFAULT_TARIFF.fee(2001));
+        assertEquals(new BigDecimal("35.00"), DEFAULT_TARIFF.fee(3000));
+        assertEquals(new BigDecimal("40.00"), DEFAULT_TARIFF.fee(3001));
+    }
+
+    @Test
+    void testTiers() {
+        TariffTable tiered = TariffTable.of(
+                new BigDecimal("30.00"), 2000, 1000, new BigDecimal("5.00"),
+                List.of(new TariffTable.Tier(5000, new BigDecimal("8.00")))
+        );
+
+        // Steps starting at 2000, 3000 and 4000 use the first rate, the rest the tier rate
+        assertEquals(new BigDecimal("45.00"), tiered.fee(5000));
+        assertEquals(new BigDecimal("53.00"), tiered.fee(5001));
+        assertEquals(new BigDecimal("45.00").add(new BigDecimal("8.00").multiply(BigDecimal.valueOf(995))),
+                tiered.fee(1_000_000));
+    }
+
+    @Test
+    void testFingerprintFollowsContent() {
+        TariffTable same = TariffTable.of(new BigDecimal("30"), 2000, 1000, new BigDecimal("5"), List.of());
+        TariffTable cheaper = TariffTable.of(new BigDecimal("25.00"), 2000, 1000, new BigDecimal("5.00"), List.of());
+
+        assertEquals(DEFAULT_TARIFF.fingerprint(), same.fingerprint());
+        assertNotEquals(DEFAULT_TARIFF.fingerprint(), cheaper.fingerprint());
+    }
+
+    // ShippingCostService.calculate before the tariff table
+    private static double legacyCalculate(Integer distance) {
+
+        double minimumShippingCost = 30.0;
+
+        long _1km = 1000L;
+        Long _2km = 2000L;
+
+        if (distance > _2km) {
+
+            long km = _2km;
+
+            while (km < distance) {
+
+                minimumShippingCost += 5d;
+                km += _1km;
+            }
+        }
+
+        return minimumShippingCost;
+    }
+}
@@ -0,0 +1,293 @@
+package org.delicias.shoppingcart.service;
+
+import org.delicias.common.dto.product.ProductPriceDTO;
+import org.delicias.shoppingcart.domain.model.ShoppingCartView;
+import org.delicias.shoppingcart.dto.ShoppingCartDTO;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.RepetitionInfo;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Property check: for random catalogs and carts the engine must return exactly what the
+ * previous stream based pricing returned, including BigDecimal scale and attribute order.
+ */
+class CartPricingEngineTest {
+
+    private final CartPricingEngine engine = new CartPricingEngine();
+
+    @RepeatedTest(500)
+    void testMatchesLegacyPricing(RepetitionInfo repetition) {
+
+        Random random = new Random(repetition.getCurrentRepetition());
+
+        Map<Integer, ProductPriceDTO> products = randomProducts(random);
+        List<ShoppingCartView.Line> lines = randomLines(random, products);
+
+        CartPricingEngine.PricedLines expected = legacyPrice(lines, products);
+        CartPricingEngine.PricedLines actual = engine.price(lines, products);
+
+        assertEquals(expected.subtotal(), actual.subtotal());
+        assertEquals(expected.lines(), actual.lines());
+
+        for (int i = 0; i < expected.lines().size(); i++) {
+            assertIterableEquals(expected.lines().get(i).attrsAdded(), actual.lines().get(i).attrsAdded());
+        }
+    }
+
+    @Test
+    void testRepeatedAttrValueIdIsCountedOncePerOccurrence() {
+
+        ProductPriceDTO product = product(1, new BigDecimal("10.00"), List.of(
+                attribute("Size", value(7, "Large", new BigDecimal("2.50"))),
+                attribute("Extra", value(7, "Large again", new BigDecimal("1.25")), value(8, "Cheese", null))
+        ));
+
+        ShoppingCartView.Line line = new ShoppingCartView.Line(UUID.randomUUID(), 1, (short) 2, Set.of(7, 8));
+
+        assertEquals(
+                legacyPrice(List.of(line), Map.of(1, product)),
+                engine.price(List.of(line), Map.of(1, product))
+        );
+    }
+
+    @RepeatedTest(100)
+    void testDescribeWithStoredTotalsMatchesPricing(RepetitionInfo repetition) {
+
+        Random random = new Random(repetition.getCurrentRepetition());
+
+        Map<Integer, ProductPriceDTO> products = randomProducts(random);
+        // Stored totals exist only for lines whose product could be priced
+        List<ShoppingCartView.Line> lines = randomLines(random, products).stream()
+                .filter(line -> products.containsKey(line.productTmplId()))
+                .toList();
+
+        CartPricingEngine.PricedLines priced = engine.price(lines, products);
+
+        List<ShoppingCartView.Line> stored = new ArrayList<>(lines.size());
+
+        for (int i = 0; i < lines.size(); i++) {
+            ShoppingCartView.Line line = lines.get(i);
+            stored.add(new ShoppingCartView.Line(
+                    line.id(), line.productTmplId(), line.qty(), line.attrValuesIds(), priced.lines().get(i).priceTotal(),
+                    CartPricingEngine.fingerprint(products.get(line.productTmplId()))
+            ));
+        }
+
+        Optional<CartPricingEngine.PricedLines> described = engine.describe(stored, products, priced.subtotal());
+
+        assertEquals(Optional.of(priced), described);
+    }
+
+    @Test
+    void testDescribeNeedsEveryStoredTotal() {
+
+        ProductPriceDTO product = product(1, new BigDecimal("10.00"), List.of());
+
+        List<ShoppingCartView.Line> lines = List.of(
+                new ShoppingCartView.Line(
+                        UUID.randomUUID(), 1, (short) 1, null, new BigDecimal("10.00"), CartPricingEngine.fingerprint(product)
+                ),
+                new ShoppingCartView.Line(UUID.randomUUID(), 1, (short) 2, null)
+        );
+
+        assertEquals(Optional.empty(), engine.describe(lines, Map.of(1, product), new BigDecimal("10.00")));
+    }
+
+    @Test
+    void testDescribeRejectsTotalsPricedFromOtherPrices() {
+
+        ProductPriceDTO priced = product(1, new BigDecimal("10.00"), List.of(attribute("Size", value(3, "L", new BigDecimal("2.00")))));
+        long fingerprint = CartPricingEngine.fingerprint(priced);
+
+        List<ShoppingCartView.Line> lines = List.of(
+                new ShoppingCartView.Line(UUID.randomUUID(), 1, (short) 2, Set.of(3), new BigDecimal("24.00"), fingerprint)
+        );
+
+        assertTrue(engine.describe(lines, Map.of(1, priced), new BigDecimal("24.00")).isPresent());
+
+        // Reloaded prices with no catalog invalidation in between
+        List<ProductPriceDTO> reloaded = List.of(
+                product(1, new BigDecimal("11.00"), priced.attributes()),
+                product(1, new BigDecimal("10.00"), List.of(attribute("Size", value(3, "L", new BigDecimal("2.50"))))),
+                product(1, new BigDecimal("10.0"), priced.attributes())
+        );
+
+        for (ProductPriceDTO product : reloaded) {
+            assertNotEquals(fingerprint, CartPricingEngine.fingerprint(product));
+            assertEquals(Optional.empty(), engine.describe(lines, Map.of(1, product), new BigDecimal("24.00")));
+        }
+
+        // Names and pictures are not prices
+        ProductPriceDTO renamed = ProductPriceDTO.builder()
+                .productTmplId(1)
+                .name("Renamed")
+                .listPrice(new BigDecimal("10.00"))
+                .attributes(priced.attributes())
+                .build();
+
+        assertEquals(fingerprint, CartPricingEngine.fingerprint(renamed));
+    }
+
+    private static Map<Integer, ProductPriceDTO> randomProducts(Random random) {
+
+        Map<Integer, ProductPriceDTO> products = new HashMap<>();
+        int productCount = 1 + random.nextInt(12);
+
+        for (int productId = 1; productId <= productCount; productId++) {
+
+            List<ProductPriceDTO.AttributeDTO> attributes = new ArrayList<>();
+
+            for (int a = random.nextInt(5); a > 0; a--) {
+
+                List<ProductPriceDTO.AttributeValueDTO> values = new ArrayList<>();
+
+                for (int v = random.nextInt(8); v > 0; v--) {
+                    values.add(value(
+                            // Small id range so ids repeat across attributes and products
+                            random.nextInt(40),
+                            random.nextInt(10) == 0 ? "" : "v" + random.nextInt(100),
+                            random.nextInt(4) == 0 ? null : money(random)
+                    ));
+                }
+
+                attributes.add(attribute("attr" + random.nextInt(4), values.toArray(ProductPriceDTO.AttributeValueDTO[]::new)));
+            }
+
+            products.put(productId, product(productId, random.nextInt(6) == 0 ? null : money(random), attributes));
+        }
+
+        return products;
+    }
+
+    private static List<ShoppingCartView.Line> randomLines(Random random, Map<Integer, ProductPriceDTO> products) {
+
+        List<ShoppingCartView.Line> lines = new ArrayList<>();
+
+        for (int l = random.nextInt(20); l > 0; l--) {
+
+            Set<Integer> selected = null;
+
+            if (random.nextInt(4) != 0) {
+                selected = new HashSet<>();
+                for (int s = random.nextInt(10); s > 0; s--) {
+                    selected.add(random.nextInt(45));
+                }
+            }
+
+            lines.add(new ShoppingCartView.Line(
+                    new UUID(random.nextLong(), random.nextLong()),
+                    // Some lines reference products missing from the catalog
+                    1 + random.nextInt(products.size() + 2),
+                    (short) (1 + random.nextInt(9)),
+                    selected
+            ));
+        }
+
+        return lines;
+    }
+
+    private static BigDecimal money(Random random) {
+        // Mixed scales on purpose: the sum must keep the same scale as before
+        return BigDecimal.valueOf(random.nextInt(100_000), random.nextInt(4));
+    }
+
+    private static ProductPriceDTO product(int id, BigDecimal listPrice, List<ProductPriceDTO.AttributeDTO> attributes) {
+        return ProductPriceDTO.builder()
+                .productTmplId(id)
+                .name("Product " + id)
+                .description("Description " + id)
+                .pictureUrl("picture-" + id)
+                .listPrice(listPrice)
+                .attributes(attributes)
+                .build();
+    }
+
+    private static ProductPriceDTO.AttributeDTO attribute(String name, ProductPriceDTO.AttributeValueDTO... values) {
+        return ProductPriceDTO.AttributeDTO.builder()
+                .name(name)
+                .values(List.of(values))
+                .build();
+    }
+
+    private static ProductPriceDTO.AttributeValueDTO value(int id, String name, BigDecimal extraPrice) {
+        return ProductPriceDTO.AttributeValueDTO.builder()
+                .attrValueId(id)
+                .name(name)
+                .extraPrice(extraPrice)
+                .build();
+    }
+
+    /**
+     * The pricing ShoppingCartService used before CartPricingEngine, kept verbatim as the oracle.
+     */
+    private static CartPricingEngine.PricedLines legacyPrice(
+            List<ShoppingCartView.Line> linesAdded,
+            Map<Integer, ProductPriceDTO> productsMap
+    ) {
+
+        BigDecimal subtotal = BigDecimal.ZERO;
+
+        List<ShoppingCartDTO.ShoppingLine> lines = new ArrayList<>();
+
+        for(ShoppingCartView.Line line: linesAdded) {
+
+            ProductPriceDTO product = productsMap.get(line.productTmplId());
+
+            if(product != null) {
+
+                Set<Integer> selectedIds = line.attrValuesIds() != null ?
+                        new HashSet<>(line.attrValuesIds()) : Collections.emptySet();
+
+                BigDecimal extraPrice = product.attributes().stream()
+                        .flatMap(attr -> attr.values().stream())
+                        .filter(v -> selectedIds.contains(v.attrValueId()))
+                        .map(v -> Optional.ofNullable(v.extraPrice()).orElse(BigDecimal.ZERO))
+                        .reduce(BigDecimal.ZERO, BigDecimal::add)
+                        .multiply(BigDecimal.valueOf(line.qty()));
+
+                Set<ShoppingCartDTO.AttrAddedItem> attrsAdded = product.attributes().stream()
+                        .map(attr -> {
+                            String selectedValuesNames = attr.values().stream()
+                                    .filter(v -> selectedIds.contains(v.attrValueId()))
+                                    .map(ProductPriceDTO.AttributeValueDTO::name)
+                                    .collect(Collectors.joining(", "));
+
+                            return new AbstractMap.SimpleEntry<>(attr.name(), selectedValuesNames);
+                        })
+                        .filter(e -> !e.getValue().isEmpty())
+                        .map(e -> new ShoppingCartDTO.AttrAddedItem(e.getKey(), e.getValue()))
+                        .collect(Collectors.toCollection(LinkedHashSet::new));
+
+                BigDecimal basePrice = Optional.ofNullable(product.listPrice()).orElse(BigDecimal.ZERO);
+
+                BigDecimal lineTotal = basePrice.multiply(BigDecimal.valueOf(line.qty()))
+                        .add(extraPrice);
+
+                lines.add(ShoppingCartDTO.ShoppingLine.builder()
+                        .id(line.id())
+                        .productTmplId(line.productTmplId())
+                        .productTmplName(product.name())
+                        .productTmplDescription(product.description())
+                        .qty(line.qty())
+                        .priceUnit(product.listPrice())
+                        .priceTotal(lineTotal)
+                        .attrsAdded(attrsAdded)
+                        .pictureUrl(product.pictureUrl())
+                        .build());
+
+                subtotal = subtotal.add(lineTotal);
+            }
+        }
+
+        return new CartPricingEngine.PricedLines(lines, subtotal);
+    }
+}
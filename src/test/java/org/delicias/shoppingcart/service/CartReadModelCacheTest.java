@@ -0,0 +1,124 @@
+package org.delicias.shoppingcart.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.delicias.catalog.service.ProductCatalogCache;
+import org.delicias.shoppingcart.dto.ShoppingCartDTO;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CartReadModelCacheTest {
+
+    private static final String USER = "user-a";
+
+    private final UUID cartId = UUID.randomUUID();
+
+    private final AtomicLong catalogVersion = new AtomicLong(1);
+
+    private Duration catalogTtl = Duration.ofMinutes(5);
+
+    private CartReadModelCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new CartReadModelCache();
+        cache.catalogCache = new ProductCatalogCache() {
+            @Override
+            public long version() {
+                return catalogVersion.get();
+            }
+
+            @Override
+            public Duration ttl() {
+                return catalogTtl;
+            }
+        };
+        cache.objectMapper = new ObjectMapper();
+        cache.maxSize = 100;
+        cache.ttl = Duration.ofMinutes(1);
+        cache.init();
+    }
+
+    @Test
+    void testHitForSameUserAndCatalog() {
+        ShoppingCartDTO cart = cart();
+
+        cache.put(cartId, USER, 3, cache.catalogCache.version(), cart, 5);
+
+        ShoppingCartService.VersionedCart cached = cache.get(cartId, USER).orElseThrow();
+
+        assertSame(cart, cached.cart());
+        assertEquals(3, cached.version());
+        assertTrue(cache.get(cartId, "user-b").isEmpty());
+        assertEquals(1, cache.stats().hits());
+    }
+
+    @Test
+    void testWriteEvictsAndRejectsOlderSnapshot() {
+        cache.put(cartId, USER, 3, cache.catalogCache.version(), cart(), 5);
+
+        cache.onCartChanged(new CartChangedEvent(cartId, 4, CartChangedEvent.Type.LINE_UPDATED, null));
+
+        assertTrue(cache.get(cartId, USER).isEmpty());
+
+        // A view computed from the snapshot before the write must not be stored
+        cache.put(cartId, USER, 3, cache.catalogCache.version(), cart(), 5);
+        assertTrue(cache.get(cartId, USER).isEmpty());
+
+        cache.put(cartId, USER, 4, cache.catalogCache.version(), cart(), 5);
+        assertTrue(cache.get(cartId, USER).isPresent());
+        assertEquals(1, cache.stats().rejectedPuts());
+    }
+
+    @Test
+    void testEntriesDoNotOutliveTheCatalogPrices() {
+        catalogTtl = Duration.ZERO;
+        cache.init();
+
+        cache.put(cartId, USER, 3, cache.catalogCache.version(), cart(), 5);
+
+        // The next read has to load the prices again, and see whether they changed
+        assertTrue(cache.get(cartId, USER).isEmpty());
+    }
+
+    @Test
+    void testDeletedCartIsNeverCachedAgain() {
+        cache.onCartChanged(CartChangedEvent.deleted(cartId));
+
+        cache.put(cartId, USER, 7, cache.catalogCache.version(), cart(), 5);
+
+        assertTrue(cache.get(cartId, USER).isEmpty());
+    }
+
+    @Test
+    void testCatalogInvalidationMakesEntryStale() {
+        cache.put(cartId, USER, 3, cache.catalogCache.version(), cart(), 5);
+
+        catalogVersion.incrementAndGet();
+
+        assertTrue(cache.get(cartId, USER).isEmpty());
+        assertEquals(1, cache.stats().staleCatalogMisses());
+    }
+
+    @Test
+    void testNotModifiedAccountsSavedWork() {
+        cache.put(cartId, USER, 3, cache.catalogCache.version(), cart(), 5);
+
+        CartReadModelCache.SavedWork saved = cache.recordNotModified(cartId);
+
+        assertTrue(saved.bytes() > 0);
+        assertEquals(5, saved.computeMillis());
+        assertEquals(saved.bytes(), cache.stats().savedBytes());
+        assertEquals(-1, cache.recordNotModified(UUID.randomUUID()).bytes());
+    }
+
+    private ShoppingCartDTO cart() {
+        return ShoppingCartDTO.builder().id(cartId).build();
+    }
+}
@@ -0,0 +1,91 @@
+package org.delicias.shoppingcart.service;
+
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import org.delicias.shoppingcart.dto.CartDeltaDTO;
+import org.delicias.shoppingcart.dto.ShoppingCartDTO;
+import org.delicias.shoppingcart.event.CartChangedEvent;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CartStreamServiceTest {
+
+    private final UUID cartId = UUID.randomUUID();
+
+    @Test
+    void testDeltaCarriesOnlyChangedAndRemovedLines() {
+
+        ShoppingCartDTO.ShoppingLine kept = line(UUID.randomUUID(), 1, "50.00");
+        ShoppingCartDTO.ShoppingLine updated = line(UUID.randomUUID(), 1, "20.00");
+        ShoppingCartDTO.ShoppingLine removed = line(UUID.randomUUID(), 2, "30.00");
+        ShoppingCartDTO.ShoppingLine added = line(UUID.randomUUID(), 1, "10.00");
+        ShoppingCartDTO.ShoppingLine updatedNow = line(updated.id(), 3, "60.00");
+
+        CartDeltaDTO delta = CartStreamService.delta(
+                cart(List.of(kept, updated, removed), "100.00"),
+                new ShoppingCartService.VersionedCart(cart(List.of(kept, updatedNow, added), "120.00"), 8, 1, true)
+        );
+
+        assertEquals(CartDeltaDTO.Kind.DELTA, delta.kind());
+        assertEquals(8L, delta.version());
+        assertEquals(List.of(updatedNow, added), delta.changedLines());
+        assertEquals(List.of(removed.id()), delta.removedLineIds());
+        assertEquals(new BigDecimal("120.00"), delta.subtotal());
+    }
+
+    @Test
+    void testNotifierCompletesTheStreamWhenTheCartIsDeleted() {
+
+        CartChangeNotifier notifier = new CartChangeNotifier();
+
+        AssertSubscriber<CartChangedEvent> subscriber = notifier.changes(cartId)
+                .subscribe().withSubscriber(AssertSubscriber.create(10));
+
+        notifier.publish(new CartChangedEvent(UUID.randomUUID(), 1, CartChangedEvent.Type.LINE_ADDED, null));
+        notifier.publish(new CartChangedEvent(cartId, 2, CartChangedEvent.Type.LINE_ADDED, null));
+        notifier.publish(CartChangedEvent.deleted(cartId));
+
+        subscriber.assertCompleted();
+        assertEquals(List.of(2L, CartChangedEvent.DELETED),
+                subscriber.getItems().stream().map(CartChangedEvent::version).toList());
+        assertEquals(0, notifier.subscribedCarts());
+    }
+
+    @Test
+    void testCancelledSubscriberReleasesTheChannel() {
+
+        CartChangeNotifier notifier = new CartChangeNotifier();
+
+        AssertSubscriber<CartChangedEvent> subscriber = notifier.changes(cartId)
+                .subscribe().withSubscriber(AssertSubscriber.create(10));
+
+        assertEquals(1, notifier.subscribedCarts());
+
+        subscriber.cancel();
+
+        assertEquals(0, notifier.subscribedCarts());
+    }
+
+    private ShoppingCartDTO cart(List<ShoppingCartDTO.ShoppingLine> lines, String subtotal) {
+        return ShoppingCartDTO.builder()
+                .id(cartId)
+                .shoppingLines(lines)
+                .charges(List.of())
+                .subtotal(new BigDecimal(subtotal))
+                .total(new BigDecimal(subtotal))
+                .build();
+    }
+
+    private static ShoppingCartDTO.ShoppingLine line(UUID id, int qty, String total) {
+        return ShoppingCartDTO.ShoppingLine.builder()
+                .id(id)
+                .productTmplId(1)
+                .qty((short) qty)
+                .priceTotal(new BigDecimal(total))
+                .build();
+    }
+}
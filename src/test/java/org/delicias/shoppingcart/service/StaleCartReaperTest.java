@@ -0,0 +1,92 @@
+package org.delicias.shoppingcart.service;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+@TestProfile(StaleCartReaperTest.ManualReaper.class)
+class StaleCartReaperTest {
+
+    public static class ManualReaper implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "delicias.shoppingcart.reaper.every", "off",
+                    "delicias.shoppingcart.reaper.ttl", "P30D",
+                    "delicias.shoppingcart.reaper.batch-size", "3",
+                    "delicias.shoppingcart.reaper.min-batch-size", "1",
+                    "delicias.shoppingcart.reaper.pause", "PT0S"
+            );
+        }
+    }
+
+    @Inject
+    StaleCartReaper reaper;
+
+    @Inject
+    EntityManager em;
+
+    @Test
+    void testIdleCartsAreDeletedWithTheirLinesInChunks() {
+
+        reaper.reap();
+
+        UUID user = UUID.randomUUID();
+
+        QuarkusTransaction.requiringNew().run(() -> {
+            for (int restaurant = 1; restaurant <= 7; restaurant++) {
+                insertCart(user, restaurant, restaurant <= 5 ? 40 : 2);
+            }
+        });
+
+        // Five idle carts in chunks of at most three
+        assertEquals(5, reaper.reap());
+
+        assertEquals(2L, count("SELECT COUNT(*) FROM shopping_cart WHERE user_uuid = ?1", user));
+        assertEquals(4L, count("""
+                SELECT COUNT(*) FROM shopping_cart_line l
+                JOIN shopping_cart c ON c.id = l.shopping_cart_uuid
+                WHERE c.user_uuid = ?1
+                """, user));
+
+        assertEquals(0, reaper.reap());
+    }
+
+    private void insertCart(UUID user, int restaurantTmplId, int idleDays) {
+
+        UUID cartId = UUID.randomUUID();
+
+        em.createNativeQuery("""
+                INSERT INTO shopping_cart (id, user_uuid, restaurant_tmpl_id, line_count, last_modified_at)
+                VALUES (?1, ?2, ?3, 2, now() - make_interval(days => ?4))
+                """)
+                .setParameter(1, cartId)
+                .setParameter(2, user)
+                .setParameter(3, restaurantTmplId)
+                .setParameter(4, idleDays)
+                .executeUpdate();
+
+        em.createNativeQuery("""
+                INSERT INTO shopping_cart_line (id, shopping_cart_uuid, product_tmpl_id, qty)
+                SELECT uuid_generate_v4(), ?1, g, 1 FROM generate_series(1, 2) g
+                """)
+                .setParameter(1, cartId)
+                .executeUpdate();
+    }
+
+    private long count(String sql, UUID user) {
+        return QuarkusTransaction.requiringNew().call(() ->
+                ((Number) em.createNativeQuery(sql).setParameter(1, user).getSingleResult()).longValue()
+        );
+    }
+}
@@ -0,0 +1,65 @@
+// Load test for GET /api/shoppingcart/{id}.
+//
+// Run it twice against the same instance and data, once with
+// delicias.shoppingcart.non-blocking.enabled=true and once with false, keeping the
+// worker pool small (quarkus.thread-pool.max-threads=8) so the threading model is
+// what limits throughput:
+//
+//   k6 run -e BASE_URL=http://localhost:3004 -e TOKEN=... -e CART_IDS=id1,id2 src/test/k6/cart-view.js
+//
+// REVALIDATE_RATIO is the share of requests sent with the last ETag seen (304 path).
+import http from 'k6/http';
+import { check } from 'k6';
+import { Counter } from 'k6/metrics';
+
+const BASE_URL = __ENV.BASE_URL || 'http://localhost:3004';
+const CART_IDS = (__ENV.CART_IDS || '').split(',').filter((id) => id.length > 0);
+const REVALIDATE_RATIO = Number(__ENV.REVALIDATE_RATIO || '0.5');
+
+const notModified = new Counter('cart_view_not_modified');
+
+export const options = {
+    scenarios: {
+        cart_views: {
+            executor: 'ramping-arrival-rate',
+            startRate: 100,
+            timeUnit: '1s',
+            preAllocatedVUs: 200,
+            maxVUs: 2000,
+            stages: [
+                { target: 500, duration: '30s' },
+                { target: 2000, duration: '1m' },
+                { target: 2000, duration: '1m' },
+            ],
+        },
+    },
+    thresholds: {
+        http_req_failed: ['rate<0.01'],
+        http_req_duration: ['p(99)<500'],
+    },
+};
+
+const etags = {};
+
+export default function () {
+
+    const cartId = CART_IDS[Math.floor(Math.random() * CART_IDS.length)];
+
+    const headers = { Authorization: `Bearer ${__ENV.TOKEN}` };
+
+    if (etags[cartId] && Math.random() < REVALIDATE_RATIO) {
+        headers['If-None-Match'] = etags[cartId];
+    }
+
+    const res = http.get(`${BASE_URL}/api/shoppingcart/${cartId}`, { headers, tags: { name: 'cart-view' } });
+
+    check(res, { 'status is 200 or 304': (r) => r.status === 200 || r.status === 304 });
+
+    if (res.status === 304) {
+        notModified.add(1);
+    }
+
+    if (res.headers.Etag) {
+        etags[cartId] = res.headers.Etag;
+    }
+}